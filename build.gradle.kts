@@ -1,5 +1,6 @@
 plugins {
     id("org.openrewrite.build.recipe-library") version "1.7.0"
+    id("me.champeau.jmh") version "0.6.8"
 }
 
 // Set as appropriate for your organization
@@ -14,4 +15,13 @@ dependencies {
 
     // Need to have a slf4j binding to see any output enabled from the parser.
     testRuntimeOnly("ch.qos.logback:logback-classic:1.2.+")
+
+    jmh("org.openrewrite:rewrite-java:${rewriteVersion}")
+    jmh("org.openrewrite:rewrite-java-17:${rewriteVersion}")
+}
+
+jmh {
+    jmhVersion.set("1.36")
+    // allocation rate and bytes allocated per operation
+    profilers.add("gc")
 }
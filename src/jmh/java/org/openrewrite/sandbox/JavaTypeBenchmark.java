@@ -0,0 +1,256 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openjdk.jmh.annotations.*;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.JavaType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JavaTypeBenchmark {
+
+    /**
+     * Either the JavaTypeGoat fixture or the number of generated classes to parse.
+     */
+    @Param({"goat", "100", "1000"})
+    String corpus;
+
+    List<SourceFile> sourceFiles;
+    ByteBuffer typeTable;
+    ByteBuffer offHeapTypeTable;
+    List<int[]> typeRefs;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> sources = new ArrayList<>();
+        if ("goat".equals(corpus)) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    JavaTypeBenchmark.class.getResourceAsStream("/JavaTypeGoat.java.txt"), StandardCharsets.UTF_8))) {
+                sources.add(reader.lines().collect(Collectors.joining("\n")));
+            }
+        } else {
+            int n = Integer.parseInt(corpus);
+            for (int i = 0; i < n; i++) {
+                sources.add(generatedClass(i));
+            }
+        }
+
+        sourceFiles = new ArrayList<>(JavaParser.fromJavaVersion().build()
+                .parse(new InMemoryExecutionContext(Throwable::printStackTrace), sources.toArray(new String[0])));
+
+        // deduplicating many source files rewrites clones of their types, leaving the parsed types as they are
+        JavaTypeTable.Writer writer = new JavaTypeTable.Writer();
+        typeRefs = new ArrayList<>(sourceFiles.size());
+        for (SourceFile sourceFile : JavaTypeUtils.dedupTypes(sourceFiles, new JavaTypeVariants())) {
+            typeRefs.add(writer.add(sourceFile));
+        }
+        typeTable = writer.write();
+        offHeapTypeTable = writer.write(ByteBuffer::allocateDirect);
+    }
+
+    private static String generatedClass(int i) {
+        String previous = "Gen" + Math.max(0, i - 1);
+        return "package gen;\n" +
+               "import java.util.*;\n" +
+               "import java.util.function.Function;\n" +
+               "public class Gen" + i + " {\n" +
+               "    private final Map<String, List<" + previous + ">> index = new HashMap<>();\n" +
+               "    public Optional<" + previous + "> find(String key, Function<? super String, Integer> hash) {\n" +
+               "        return index.getOrDefault(key, Collections.emptyList()).stream().findFirst();\n" +
+               "    }\n" +
+               "    <T extends Comparable<T>> T max(List<T> values) {\n" +
+               "        return Collections.max(values);\n" +
+               "    }\n" +
+               "}\n";
+    }
+
+    /**
+     * Deduplication rewires types in place, so every invocation works on freshly cloned types.
+     */
+    @State(Scope.Thread)
+    public static class FreshTypes {
+        List<SourceFile> sourceFiles;
+        List<JavaType> types;
+
+        @Setup(Level.Invocation)
+        public void cloneTypes(JavaTypeBenchmark benchmark) {
+            sourceFiles = new ArrayList<>(benchmark.sourceFiles.size());
+            types = new ArrayList<>();
+            for (SourceFile sourceFile : benchmark.sourceFiles) {
+                SourceFile cloned = JavaTypeUtils.cloneTypes(sourceFile);
+                sourceFiles.add(cloned);
+                new JavaIsoVisitor<Integer>() {
+                    @Override
+                    public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                        if (javaType != null) {
+                            types.add(javaType);
+                        }
+                        return javaType;
+                    }
+                }.visit(cloned, 0);
+            }
+        }
+    }
+
+    /**
+     * Replacing types with their copies points the copies' references at copies in place, so every
+     * invocation starts from fresh shallow copies, whose references are still to the originals.
+     */
+    @State(Scope.Thread)
+    public static class ShallowCopies {
+        List<IdentityHashMap<JavaType, JavaType>> copies;
+
+        @Setup(Level.Invocation)
+        public void copyTypes(JavaTypeBenchmark benchmark) {
+            copies = new ArrayList<>(benchmark.sourceFiles.size());
+            for (SourceFile sourceFile : benchmark.sourceFiles) {
+                JavaTypeCloner cloner = new JavaTypeCloner();
+                IdentityHashMap<JavaType, JavaType> c = new IdentityHashMap<>();
+                Deque<JavaType> stack = new ArrayDeque<>();
+                new JavaIsoVisitor<Integer>() {
+                    @Override
+                    public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                        if (javaType != null) {
+                            stack.push(javaType);
+                        }
+                        return javaType;
+                    }
+                }.visit(sourceFile, 0);
+                while (!stack.isEmpty()) {
+                    JavaType type = stack.pop();
+                    if (!c.containsKey(type)) {
+                        c.put(type, cloner.copy(type));
+                        JavaTypeUtils.forEachReference(type, reference -> {
+                            if (reference != null) {
+                                stack.push(reference);
+                            }
+                        });
+                    }
+                }
+                copies.add(c);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<SourceFile> dedupTypes(FreshTypes fresh) {
+        List<SourceFile> deduped = new ArrayList<>(fresh.sourceFiles.size());
+        for (SourceFile sourceFile : fresh.sourceFiles) {
+            deduped.add(JavaTypeUtils.dedupTypes(sourceFile));
+        }
+        return deduped;
+    }
+
+    @Benchmark
+    public List<SourceFile> dedupTypesByBisimulation(FreshTypes fresh) {
+        return JavaTypeUtils.dedupTypesByBisimulation(fresh.sourceFiles);
+    }
+
+    @Benchmark
+    public JavaTypeVariants deduplicationTypeVisitor(FreshTypes fresh) {
+        JavaTypeVariants variants = new JavaTypeVariants();
+        JavaTypeDeduplicationTypeVisitor visitor = new JavaTypeDeduplicationTypeVisitor(variants);
+        for (JavaType type : fresh.types) {
+            visitor.visit(type, 0);
+        }
+        return variants;
+    }
+
+    @Benchmark
+    public List<SourceFile> cloneTypes() {
+        List<SourceFile> cloned = new ArrayList<>(sourceFiles.size());
+        for (SourceFile sourceFile : sourceFiles) {
+            cloned.add(JavaTypeUtils.cloneTypes(sourceFile));
+        }
+        return cloned;
+    }
+
+    @Benchmark
+    public List<SourceFile> replaceWithClones(ShallowCopies shallow) {
+        List<SourceFile> replaced = new ArrayList<>(sourceFiles.size());
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            replaced.add(JavaTypeUtils.replaceWithClones(sourceFiles.get(i), shallow.copies.get(i)));
+        }
+        return replaced;
+    }
+
+    @Benchmark
+    public long weigh() {
+        long weight = 0;
+        for (SourceFile sourceFile : sourceFiles) {
+            weight += JavaTypeUtils.weigh(sourceFile);
+        }
+        return weight;
+    }
+
+    @Benchmark
+    public ByteBuffer writeTypeTable() {
+        JavaTypeTable.Writer writer = new JavaTypeTable.Writer();
+        for (SourceFile sourceFile : sourceFiles) {
+            writer.add(sourceFile);
+        }
+        return writer.write();
+    }
+
+    @Benchmark
+    public List<SourceFile> readTypeTable() {
+        JavaTypeTable table = JavaTypeTable.read(typeTable);
+        List<SourceFile> attached = new ArrayList<>(sourceFiles.size());
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            attached.add(table.attach(sourceFiles.get(i), typeRefs.get(i)));
+        }
+        return attached;
+    }
+
+    @Benchmark
+    public List<SourceFile> readOffHeapTypeTableSoftly() {
+        JavaTypeTable table = JavaTypeTable.read(offHeapTypeTable, true);
+        List<SourceFile> attached = new ArrayList<>(sourceFiles.size());
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            attached.add(table.attach(sourceFiles.get(i), typeRefs.get(i)));
+        }
+        return attached;
+    }
+
+    @Benchmark
+    public long weighWithSharedVisitedSet() {
+        return JavaTypeUtils.weigh(sourceFiles);
+    }
+
+    @Benchmark
+    public long weighInParallel() {
+        return JavaTypeUtils.weigh(sourceFiles, ForkJoinPool.commonPool());
+    }
+}
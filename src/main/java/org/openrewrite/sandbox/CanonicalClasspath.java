@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A classpath whose entries are deduplicated against variants the first time each is read, so that a
+ * classpath which is mostly never looked at is mostly never deduplicated. Many source files, on many threads,
+ * can share one instance.
+ * <p>
+ * The original types are shared by every source file of the source set, which other threads may be reading,
+ * so they are never rewritten. Each entry is deduplicated from a copy instead, made by one cloner for the whole
+ * classpath, so that entries which refer to the same type share one copy of it. Until every entry has been read,
+ * the classpath pins the original classpath and the copies made so far. {@link #complete()} reads the rest and
+ * lets go of both.
+ */
+final class CanonicalClasspath extends AbstractList<JavaType.FullyQualified> implements RandomAccess {
+    private final AtomicReferenceArray<JavaType.FullyQualified> canonical;
+
+    /**
+     * What reading the remaining entries takes, or {@code null} once every entry has been read.
+     */
+    @Nullable
+    private Pending pending;
+
+    CanonicalClasspath(List<JavaType.FullyQualified> original, JavaTypeVariants variants) {
+        this.canonical = new AtomicReferenceArray<>(original.size());
+        this.pending = original.isEmpty() ? null : new Pending(original, variants);
+    }
+
+    @Override
+    public JavaType.FullyQualified get(int index) {
+        JavaType.FullyQualified c = canonical.get(index);
+        return c == null ? canonicalize(index) : c;
+    }
+
+    @Override
+    public int size() {
+        return canonical.length();
+    }
+
+    /**
+     * Deduplicates every entry that has not been read yet, after which the original classpath is no longer
+     * pinned.
+     */
+    synchronized void complete() {
+        for (int i = 0; pending != null && i < size(); i++) {
+            get(i);
+        }
+    }
+
+    synchronized boolean isComplete() {
+        return pending == null;
+    }
+
+    /**
+     * The type visitor keeps equivalences for one thread at a time, so entries are deduplicated one at a time.
+     */
+    private synchronized JavaType.FullyQualified canonicalize(int index) {
+        JavaType.FullyQualified c = canonical.get(index);
+        if (c != null) {
+            return c;
+        }
+        Pending p = pending;
+        assert p != null;
+        c = p.canonicalize(index);
+        canonical.set(index, c);
+        if (--p.remaining == 0) {
+            pending = null;
+        }
+        return c;
+    }
+
+    private static class Pending {
+        final List<JavaType.FullyQualified> original;
+        final JavaTypeCloner cloner = new JavaTypeCloner();
+        final JavaTypeDeduplicationTypeVisitor typeVisitor;
+        int remaining;
+
+        Pending(List<JavaType.FullyQualified> original, JavaTypeVariants variants) {
+            this.original = original;
+            this.typeVisitor = new JavaTypeDeduplicationTypeVisitor(variants);
+            this.remaining = original.size();
+        }
+
+        JavaType.FullyQualified canonicalize(int index) {
+            JavaType copy = cloner.visit(original.get(index), 0);
+            JavaType.FullyQualified c = (JavaType.FullyQualified) typeVisitor.visit(copy, 0);
+            typeVisitor.publishMetrics();
+            return c;
+        }
+    }
+}
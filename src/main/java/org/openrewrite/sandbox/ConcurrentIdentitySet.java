@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+/**
+ * An {@link IdentitySet} that many threads can add to at once. Objects are spread over independently locked
+ * stripes by their identity hash code, so threads only contend when they add to the same stripe at the same
+ * time, and every object is still added by exactly one of them.
+ */
+final class ConcurrentIdentitySet {
+    private final IdentitySet[] stripes;
+    private final int shift;
+
+    ConcurrentIdentitySet() {
+        this(Runtime.getRuntime().availableProcessors() * 4, 1 << 16);
+    }
+
+    ConcurrentIdentitySet(int concurrency, int expectedSize) {
+        this(concurrency, expectedSize, false);
+    }
+
+    private ConcurrentIdentitySet(int concurrency, int expectedSize, boolean weak) {
+        int n = Integer.highestOneBit(Math.max(concurrency, 1) - 1) << 1;
+        n = Math.max(n, 1);
+        this.stripes = new IdentitySet[n];
+        this.shift = 32 - Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++) {
+            stripes[i] = weak ? IdentitySet.weak(expectedSize / n) : new IdentitySet(expectedSize / n);
+        }
+    }
+
+    /**
+     * @return A set that doesn't keep its members alive, see {@link IdentitySet#weak(int)}.
+     */
+    static ConcurrentIdentitySet weak() {
+        return new ConcurrentIdentitySet(Runtime.getRuntime().availableProcessors() * 4, 1 << 16, true);
+    }
+
+    boolean add(Object o) {
+        IdentitySet stripe = stripe(o);
+        synchronized (stripe) {
+            return stripe.add(o);
+        }
+    }
+
+    boolean contains(Object o) {
+        IdentitySet stripe = stripe(o);
+        synchronized (stripe) {
+            return stripe.contains(o);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (IdentitySet stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    int capacity() {
+        int capacity = 0;
+        for (IdentitySet stripe : stripes) {
+            synchronized (stripe) {
+                capacity += stripe.capacity();
+            }
+        }
+        return capacity;
+    }
+
+    private IdentitySet stripe(Object o) {
+        if (stripes.length == 1) {
+            return stripes[0];
+        }
+        // the stripe is picked by the high bits so that each stripe's own table still sees all of the low bits
+        return stripes[(System.identityHashCode(o) * 0x9e3779b9) >>> shift];
+    }
+}
@@ -15,17 +15,25 @@
  */
 package org.openrewrite.sandbox;
 
+import org.openrewrite.Cursor;
 import org.openrewrite.ExecutionContext;
 import org.openrewrite.Recipe;
 import org.openrewrite.TreeVisitor;
+import org.openrewrite.internal.lang.Nullable;
 import org.openrewrite.java.JavaTemplate;
 import org.openrewrite.java.JavaVisitor;
 import org.openrewrite.java.MethodMatcher;
-import org.openrewrite.java.search.UsesMethod;
-import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.*;
+import org.openrewrite.marker.Markers;
+import org.openrewrite.sandbox.MethodInvocationDispatcher.MethodInvocationRewrite;
+
+import java.util.Collections;
+
+import static org.openrewrite.Tree.randomId;
 
 public class GetToOrElseThrow extends Recipe {
-    public static final MethodMatcher OPTIONAL_GET = new MethodMatcher("java.util.Optional get()");
+    private static final String OPTIONAL_GET_PATTERN = "java.util.Optional get()";
+    public static final MethodMatcher OPTIONAL_GET = new MethodMatcher(OPTIONAL_GET_PATTERN);
 
     @Override
     public String getDisplayName() {
@@ -39,26 +47,96 @@ public class GetToOrElseThrow extends Recipe {
 
     @Override
     protected TreeVisitor<?, ExecutionContext> getSingleSourceApplicableTest() {
-        return new UsesMethod<ExecutionContext>(OPTIONAL_GET);
+        return new IndexedUsesMethod<>(OPTIONAL_GET_PATTERN);
     }
 
     @Override
     protected JavaVisitor<ExecutionContext> getVisitor() {
-        return new JavaVisitor<ExecutionContext>() {
-            final JavaTemplate template = JavaTemplate
-                    .builder(this::getCursor, "#{any(java.util.Optional)}.orElseThrow(NoSuchElementException::new)")
-                    .imports("java.util.NoSuchElementException")
-                    .build();
+        return new MethodInvocationDispatcher<>(new MethodMatcherIndex<MethodInvocationRewrite<ExecutionContext>>()
+                .add(OPTIONAL_GET_PATTERN, new GetToOrElseThrowRewrite()));
+    }
+
+    private static class GetToOrElseThrowRewrite implements MethodInvocationRewrite<ExecutionContext> {
+        /**
+         * The cursor of the visitor applying {@link #TEMPLATE} on this thread, which is where the one template
+         * shared by every visitor and thread finds its parent scope.
+         */
+        private static final ThreadLocal<Cursor> TEMPLATE_CURSOR = new ThreadLocal<>();
+
+        // only used for invocations that lack the types to build the replacement directly
+        private static final JavaTemplate TEMPLATE = JavaTemplate
+                .builder(TEMPLATE_CURSOR::get, "#{any(java.util.Optional)}.orElseThrow(NoSuchElementException::new)")
+                .imports("java.util.NoSuchElementException")
+                .build();
+
+        // not shared between visitors, as the types of a tree may be deduplicated in place once it is visited
+        final JavaType.FullyQualified noSuchElementException =
+                JavaType.ShallowClass.build("java.util.NoSuchElementException");
+        final JavaType.Method noSuchElementExceptionConstructor = new JavaType.Method(null,
+                Flag.Public.getBitMask(), noSuchElementException, "<constructor>", noSuchElementException,
+                Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
 
-            public J visitMethodInvocation(J.MethodInvocation method, ExecutionContext ctx){
-                if (OPTIONAL_GET.matches(method)) {
-                    maybeAddImport("java.util.NoSuchElementException");
-                    return method.withTemplate(template,
-                            method.getCoordinates().replace(),
-                            method.getSelect());
-                }
-                return super.visitMethodInvocation(method, ctx);
+        @Override
+        public J visitMethodInvocation(J.MethodInvocation method, JavaVisitor<ExecutionContext> visitor,
+                                       ExecutionContext ctx) {
+            visitor.maybeAddImport("java.util.NoSuchElementException");
+            J.MethodInvocation orElseThrow = orElseThrow(method, noSuchElementException,
+                    noSuchElementExceptionConstructor);
+            if (orElseThrow != null) {
+                return orElseThrow;
             }
-        };
+            TEMPLATE_CURSOR.set(visitor.getCursor());
+            try {
+                return method.withTemplate(TEMPLATE,
+                        method.getCoordinates().replace(),
+                        method.getSelect());
+            } finally {
+                TEMPLATE_CURSOR.remove();
+            }
+        }
+    }
+
+    /**
+     * Builds {@code orElseThrow(NoSuchElementException::new)} from the {@code get()} invocation, with the
+     * {@code orElseThrow(Supplier)} that the invocation's declaring type declares.
+     */
+    @Nullable
+    private static J.MethodInvocation orElseThrow(J.MethodInvocation get, JavaType.FullyQualified noSuchElementException,
+                                                  JavaType.Method noSuchElementExceptionConstructor) {
+        JavaType.Method getType = get.getMethodType();
+        if (getType == null || getType.getDeclaringType() == null) {
+            return null;
+        }
+        JavaType.Method declared = null;
+        for (JavaType.Method m : getType.getDeclaringType().getMethods()) {
+            if ("orElseThrow".equals(m.getName()) && m.getParameterTypes().size() == 1) {
+                declared = m;
+                break;
+            }
+        }
+        if (declared == null) {
+            return null;
+        }
+
+        J.Identifier name = get.getName();
+        J.Identifier exception = name.withId(randomId())
+                .withPrefix(Space.EMPTY)
+                .withSimpleName("NoSuchElementException")
+                .withType(noSuchElementException)
+                .withFieldType(null);
+        J.Identifier constructor = exception.withId(randomId())
+                .withSimpleName("new")
+                .withType(null);
+        J.MemberReference exceptionSupplier = new J.MemberReference(randomId(), Space.EMPTY, Markers.EMPTY,
+                JRightPadded.build(exception), null, JLeftPadded.build(constructor),
+                declared.getParameterTypes().get(0), noSuchElementExceptionConstructor, null);
+
+        JavaType.Method orElseThrowType = new JavaType.Method(null, declared.getFlagsBitMap(),
+                getType.getDeclaringType(), "orElseThrow", getType.getReturnType(), declared.getParameterNames(),
+                declared.getParameterTypes(), Collections.singletonList(noSuchElementException),
+                declared.getAnnotations());
+        return get.withName(name.withSimpleName("orElseThrow"))
+                .withArguments(Collections.singletonList(exceptionSupplier))
+                .withMethodType(orElseThrowType);
     }
 }
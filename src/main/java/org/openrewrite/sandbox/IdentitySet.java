@@ -0,0 +1,159 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.internal.lang.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * An open-addressing set compared by reference identity. Unlike a set of {@link System#identityHashCode(Object)}
+ * values, colliding identity hash codes are told apart, and adding an object allocates nothing beyond the
+ * occasional table resize. {@code null} is never a member.
+ * <p>
+ * A {@link #weak(int) weak} set doesn't keep its members alive, for sets that live as long as a whole run and
+ * only ever need to tell whether an object has been seen before, which an object that has been garbage
+ * collected can't be asked about again. Each member costs a weak reference. The slots of members that have
+ * been collected are dropped whenever the table fills up, and the table only grows if it is still half full
+ * of live members after that.
+ */
+final class IdentitySet {
+    private final boolean weak;
+    private Object[] table;
+
+    /**
+     * The number of occupied slots, including those of weak members that have been collected since the table
+     * was last rebuilt.
+     */
+    private int size;
+
+    IdentitySet() {
+        this(64);
+    }
+
+    IdentitySet(int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    private IdentitySet(int expectedSize, boolean weak) {
+        this.weak = weak;
+        this.table = new Object[Math.max(16, Integer.highestOneBit(Math.max(expectedSize, 1) - 1) << 2)];
+    }
+
+    static IdentitySet weak(int expectedSize) {
+        return new IdentitySet(expectedSize, true);
+    }
+
+    /**
+     * @return Whether the object was added, which a {@code null} never is.
+     */
+    boolean add(@Nullable Object o) {
+        if (o == null) {
+            return false;
+        }
+        int mask = table.length - 1;
+        int i = hash(o) & mask;
+        Object existing;
+        while ((existing = table[i]) != null) {
+            if (member(existing) == o) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = weak ? new WeakReference<>(o) : o;
+        if (++size > table.length >>> 1) {
+            resize();
+        }
+        return true;
+    }
+
+    boolean contains(@Nullable Object o) {
+        if (o == null) {
+            return false;
+        }
+        int mask = table.length - 1;
+        int i = hash(o) & mask;
+        Object existing;
+        while ((existing = table[i]) != null) {
+            if (member(existing) == o) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of members, which for a weak set may still count some that have been collected.
+     */
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return table.length;
+    }
+
+    /**
+     * Empties the set but keeps its capacity, so that it can be reused without growing again.
+     */
+    void clear() {
+        Arrays.fill(table, null);
+        size = 0;
+    }
+
+    /**
+     * A slot whose weak member has been collected stays occupied until the table is rebuilt, so that it
+     * doesn't cut short the probing for members placed after it.
+     */
+    @Nullable
+    private Object member(Object slot) {
+        return weak ? ((WeakReference<?>) slot).get() : slot;
+    }
+
+    private void resize() {
+        Object[] old = table;
+        int live = size;
+        if (weak) {
+            live = 0;
+            for (Object slot : old) {
+                if (slot != null && member(slot) != null) {
+                    live++;
+                }
+            }
+        }
+        table = new Object[live > old.length >>> 2 ? old.length << 1 : old.length];
+        size = 0;
+        int mask = table.length - 1;
+        for (Object slot : old) {
+            Object o;
+            if (slot != null && (o = member(slot)) != null) {
+                int i = hash(o) & mask;
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = slot;
+                size++;
+            }
+        }
+    }
+
+    private static int hash(Object o) {
+        int h = System.identityHashCode(o) * 0x85ebca6b;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.Recipe;
+import org.openrewrite.SourceFile;
+import org.openrewrite.Tree;
+import org.openrewrite.TreeVisitor;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.tree.JavaSourceFile;
+
+/**
+ * Adds a {@link TypeUsageIndex} to every Java source file that doesn't carry one it can be trusted for, so
+ * that the {@link IndexedUsesMethod} and {@link IndexedUsesType} preconditions of recipes run after it can
+ * rule files out without walking them.
+ */
+public class IndexTypeUsages extends Recipe {
+
+    @Override
+    public String getDisplayName() {
+        return "Index type usages";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Records the types and methods each Java source file uses, for later recipes to skip files that don't use what they change.";
+    }
+
+    @Override
+    protected TreeVisitor<?, ExecutionContext> getVisitor() {
+        return new TreeVisitor<Tree, ExecutionContext>() {
+            @Override
+            public Tree visit(@Nullable Tree tree, ExecutionContext ctx) {
+                if (tree instanceof JavaSourceFile && TypeUsageIndex.of((SourceFile) tree) == null) {
+                    return TypeUsageIndex.index((SourceFile) tree);
+                }
+                return tree;
+            }
+        };
+    }
+}
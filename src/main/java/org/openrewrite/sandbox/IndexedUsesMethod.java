@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.SourceFile;
+import org.openrewrite.Tree;
+import org.openrewrite.TreeVisitor;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.search.UsesMethod;
+
+/**
+ * {@link UsesMethod}, except that a source file whose {@link TypeUsageIndex} rules the method out is not
+ * walked at all. Patterns with wildcards, or that match overrides, always walk the tree.
+ */
+public class IndexedUsesMethod<P> extends TreeVisitor<Tree, P> {
+    private final String methodPattern;
+    private final boolean matchOverrides;
+
+    @Nullable
+    private final String declaringType;
+
+    @Nullable
+    private final String methodName;
+
+    public IndexedUsesMethod(String methodPattern) {
+        this(methodPattern, false);
+    }
+
+    public IndexedUsesMethod(String methodPattern, boolean matchOverrides) {
+        this.methodPattern = methodPattern;
+        this.matchOverrides = matchOverrides;
+        String[] typeAndName = MethodMatcherIndex.typeAndName(methodPattern);
+        if (typeAndName == null || matchOverrides ||
+                MethodMatcherIndex.isWildcard(typeAndName[0]) || MethodMatcherIndex.isWildcard(typeAndName[1])) {
+            this.declaringType = null;
+            this.methodName = null;
+        } else {
+            this.declaringType = typeAndName[0];
+            this.methodName = typeAndName[1];
+        }
+    }
+
+    @Override
+    public Tree visit(@Nullable Tree tree, P p) {
+        if (declaringType != null && methodName != null && tree instanceof SourceFile) {
+            TypeUsageIndex index = TypeUsageIndex.of((SourceFile) tree);
+            if (index != null && !index.mayUseMethod(declaringType, methodName)) {
+                return tree;
+            }
+        }
+        return new UsesMethod<P>(methodPattern, matchOverrides).visit(tree, p);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.SourceFile;
+import org.openrewrite.Tree;
+import org.openrewrite.TreeVisitor;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.search.UsesType;
+
+/**
+ * {@link UsesType}, except that a source file whose {@link TypeUsageIndex} rules the type out is not walked
+ * at all. Type patterns with wildcards always walk the tree.
+ */
+public class IndexedUsesType<P> extends TreeVisitor<Tree, P> {
+    private final String fullyQualifiedType;
+
+    public IndexedUsesType(String fullyQualifiedType) {
+        this.fullyQualifiedType = fullyQualifiedType;
+    }
+
+    @Override
+    public Tree visit(@Nullable Tree tree, P p) {
+        if (tree instanceof SourceFile && !MethodMatcherIndex.isWildcard(fullyQualifiedType)) {
+            TypeUsageIndex index = TypeUsageIndex.of((SourceFile) tree);
+            if (index != null && !index.mayUseType(fullyQualifiedType)) {
+                return tree;
+            }
+        }
+        return new UsesType<P>(fullyQualifiedType).visit(tree, p);
+    }
+}
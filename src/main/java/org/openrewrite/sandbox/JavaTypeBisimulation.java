@@ -0,0 +1,392 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import lombok.Value;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.UnsafeJavaTypeVisitor;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.*;
+
+/**
+ * Canonicalizes a whole type graph at once. The graph is treated as an automaton whose states are types,
+ * labeled with everything {@link JavaTypeDeduplicationTypeVisitor} compares besides references, and whose
+ * transitions are those references, labeled by their position. Equivalence classes are the coarsest
+ * bisimulation, computed by Hopcroft-style partition refinement in O(E log V) following Valmari and Lehtinen's
+ * DFA minimization. Collection, refinement and rewiring are all iterative, so deep or cyclic graphs neither
+ * degrade to quadratic comparison nor overflow the stack.
+ */
+class JavaTypeBisimulation {
+    private static final int[] NO_SHAPE = new int[0];
+
+    private final JavaTypeIds ids = new JavaTypeIds();
+    private final Map<Label, Integer> labels = new HashMap<>();
+
+    private int[] labelOf = new int[64];
+
+    private int transitions;
+    private int[] tail = new int[256];
+    private int[] position = new int[256];
+    private int[] head = new int[256];
+
+    @Nullable
+    private JavaType[] canonical;
+
+    /**
+     * Adds the type and everything reachable from it to the graph.
+     */
+    void add(@Nullable JavaType root) {
+        if (root == null || ids.find(root) >= 0) {
+            return;
+        }
+
+        List<JavaType> compared = new ArrayList<>();
+        List<JavaType> reachable = new ArrayList<>();
+        Deque<JavaType> stack = new ArrayDeque<>();
+        id(root, stack);
+        while (!stack.isEmpty()) {
+            JavaType type = stack.pop();
+            int id = ids.find(type);
+
+            compared.clear();
+            reachable.clear();
+            Label label = describe(type, compared, reachable);
+            Integer labelId = labels.get(label);
+            if (labelId == null) {
+                labelId = labels.size();
+                labels.put(label, labelId);
+            }
+            labelOf[id] = labelId;
+
+            for (int i = 0; i < compared.size(); i++) {
+                JavaType successor = compared.get(i);
+                if (successor != null) {
+                    transition(id, i, id(successor, stack));
+                }
+            }
+            for (JavaType successor : reachable) {
+                if (successor != null) {
+                    id(successor, stack);
+                }
+            }
+        }
+    }
+
+    /**
+     * Refines the graph into equivalence classes, points each class's representative at the representatives
+     * of what it references, and thereby makes representatives the canonical types.
+     */
+    void canonicalize() {
+        int n = ids.size();
+        Partition blocks = new Partition(n, labelOf, labels.size());
+
+        int[] cordOf = new int[transitions];
+        int cordCount = 0;
+        Map<Integer, Integer> cordOfPosition = new HashMap<>();
+        for (int t = 0; t < transitions; t++) {
+            Integer cord = cordOfPosition.get(position[t]);
+            if (cord == null) {
+                cord = cordCount++;
+                cordOfPosition.put(position[t], cord);
+            }
+            cordOf[t] = cord;
+        }
+        Partition cords = new Partition(transitions, cordOf, cordCount);
+
+        // transitions grouped by the state they lead to
+        int[] incomingStart = new int[n + 1];
+        for (int t = 0; t < transitions; t++) {
+            incomingStart[head[t] + 1]++;
+        }
+        for (int s = 0; s < n; s++) {
+            incomingStart[s + 1] += incomingStart[s];
+        }
+        int[] incoming = new int[transitions];
+        int[] fill = Arrays.copyOf(incomingStart, n);
+        for (int t = 0; t < transitions; t++) {
+            incoming[fill[head[t]]++] = t;
+        }
+
+        // every block but the first splits cords, which implies the split by the first
+        int b = 1;
+        int c = 0;
+        while (c < cords.sets) {
+            for (int i = cords.first[c]; i < cords.past[c]; i++) {
+                blocks.mark(tail[cords.elements[i]]);
+            }
+            blocks.split();
+            c++;
+            while (b < blocks.sets) {
+                for (int i = blocks.first[b]; i < blocks.past[b]; i++) {
+                    int s = blocks.elements[i];
+                    for (int j = incomingStart[s]; j < incomingStart[s + 1]; j++) {
+                        cords.mark(incoming[j]);
+                    }
+                }
+                cords.split();
+                b++;
+            }
+        }
+
+        JavaType[] representative = new JavaType[blocks.sets];
+        canonical = new JavaType[n];
+        for (int s = 0; s < n; s++) {
+            int block = blocks.setOf[s];
+            if (representative[block] == null) {
+                representative[block] = ids.type(s);
+            }
+            canonical[s] = representative[block];
+        }
+
+        Rewire rewire = new Rewire();
+        for (JavaType r : representative) {
+            rewire.expand(r);
+        }
+    }
+
+    /**
+     * @return The canonical type equivalent to the given type, or the type itself if it is not in the graph.
+     */
+    JavaType canonical(JavaType type) {
+        int id = ids.find(type);
+        return id < 0 || canonical == null ? type : canonical[id];
+    }
+
+    private int id(JavaType type, Deque<JavaType> stack) {
+        int known = ids.size();
+        int id = ids.idOf(type);
+        if (id == known) {
+            if (id == labelOf.length) {
+                labelOf = Arrays.copyOf(labelOf, id * 2);
+            }
+            stack.push(type);
+        }
+        return id;
+    }
+
+    private void transition(int from, int at, int to) {
+        if (transitions == tail.length) {
+            tail = Arrays.copyOf(tail, transitions * 2);
+            position = Arrays.copyOf(position, transitions * 2);
+            head = Arrays.copyOf(head, transitions * 2);
+        }
+        tail[transitions] = from;
+        position[transitions] = at;
+        head[transitions] = to;
+        transitions++;
+    }
+
+    /**
+     * Collects, in a fixed order, the references that take part in equality into {@code compared}, and
+     * those that are only rewired into {@code reachable}.
+     */
+    private static Label describe(JavaType type, List<JavaType> compared, List<JavaType> reachable) {
+        if (type instanceof JavaType.Class) {
+            JavaType.Class c = (JavaType.Class) type;
+            return new Label(JavaType.Class.class, c.getFlagsBitMap(), c.getFullyQualifiedName(), c.getKind().ordinal(), new int[]{
+                    single(c.getOwningClass(), compared),
+                    single(c.getSupertype(), compared),
+                    list(c.getInterfaces(), compared),
+                    list(c.getMethods(), compared),
+                    list(c.getMembers(), compared),
+                    list(c.getAnnotations(), compared),
+                    list(c.getTypeParameters(), compared)
+            });
+        } else if (type instanceof JavaType.Parameterized) {
+            JavaType.Parameterized p = (JavaType.Parameterized) type;
+            return new Label(JavaType.Parameterized.class, 0, null, 0, new int[]{
+                    single(p.getType(), compared),
+                    list(p.getTypeParameters(), compared)
+            });
+        } else if (type instanceof JavaType.Array) {
+            return new Label(JavaType.Array.class, 0, null, 0, new int[]{
+                    single(((JavaType.Array) type).getElemType(), compared)
+            });
+        } else if (type instanceof JavaType.GenericTypeVariable) {
+            JavaType.GenericTypeVariable g = (JavaType.GenericTypeVariable) type;
+            return new Label(JavaType.GenericTypeVariable.class, 0, g.getName(), g.getVariance().ordinal(), new int[]{
+                    list(g.getBounds(), compared)
+            });
+        } else if (type instanceof JavaType.Method) {
+            JavaType.Method m = (JavaType.Method) type;
+            return new Label(JavaType.Method.class, m.getFlagsBitMap(), m.getName(), 0, new int[]{
+                    list(m.getAnnotations(), compared),
+                    list(m.getParameterTypes(), compared),
+                    single(m.getReturnType(), compared),
+                    list(m.getThrownExceptions(), compared),
+                    single(m.getDeclaringType(), compared)
+            });
+        } else if (type instanceof JavaType.Variable) {
+            JavaType.Variable v = (JavaType.Variable) type;
+            if (v.getAnnotations() != null) {
+                reachable.addAll(v.getAnnotations());
+            }
+            return new Label(JavaType.Variable.class, v.getFlagsBitMap(), v.getName(), 0, new int[]{
+                    single(v.getOwner(), compared),
+                    single(v.getType(), compared)
+            });
+        } else if (type instanceof JavaType.MultiCatch) {
+            return new Label(JavaType.MultiCatch.class, 0, null, 0, new int[]{
+                    list(((JavaType.MultiCatch) type).getThrowableTypes(), compared)
+            });
+        } else if (type instanceof JavaType.Primitive) {
+            return new Label(JavaType.Primitive.class, 0, null, ((JavaType.Primitive) type).ordinal(), NO_SHAPE);
+        }
+        return new Label(type.getClass(), 0, null, 0, NO_SHAPE);
+    }
+
+    private static int single(@Nullable JavaType type, List<JavaType> compared) {
+        compared.add(type);
+        return type == null ? 0 : 1;
+    }
+
+    /**
+     * A missing list is the empty list a getter would return.
+     */
+    private static int list(@Nullable List<? extends JavaType> types, List<JavaType> compared) {
+        if (types == null) {
+            return 0;
+        }
+        compared.addAll(types);
+        return types.size();
+    }
+
+    @Value
+    private static class Label {
+        Class<?> kind;
+        long flags;
+
+        @Nullable
+        String name;
+
+        int ordinal;
+
+        /**
+         * Per reference field, whether it is set or how many types its list holds.
+         */
+        int[] shape;
+    }
+
+    /**
+     * Points one type's references at their canonical types, without descending into them.
+     */
+    private class Rewire extends UnsafeJavaTypeVisitor<Integer> {
+        @Nullable
+        private JavaType expanding;
+
+        void expand(JavaType type) {
+            expanding = type;
+            visit(type, 0);
+        }
+
+        @Override
+        public JavaType visit(@Nullable JavaType javaType, Integer p) {
+            if (javaType == null) {
+                //noinspection ConstantConditions
+                return null;
+            } else if (javaType == expanding) {
+                expanding = null;
+                return super.visit(javaType, p);
+            }
+            return canonical(javaType);
+        }
+    }
+
+    /**
+     * A refinable partition of the integers {@code [0, n)}, where elements of each set are contiguous in
+     * {@link #elements} and marked elements are moved to the front of their set until the set is split.
+     */
+    private static class Partition {
+        int sets;
+        final int[] elements;
+        final int[] location;
+        final int[] setOf;
+        final int[] first;
+        final int[] past;
+        final int[] marked;
+        final int[] touched;
+        int touchedCount;
+
+        Partition(int n, int[] initialSetOf, int initialSets) {
+            elements = new int[n];
+            location = new int[n];
+            setOf = new int[n];
+            first = new int[n];
+            past = new int[n];
+            marked = new int[n];
+            touched = new int[n];
+            sets = initialSets;
+
+            for (int e = 0; e < n; e++) {
+                past[initialSetOf[e]]++;
+            }
+            for (int s = 0, offset = 0; s < initialSets; s++) {
+                first[s] = offset;
+                offset += past[s];
+                past[s] = first[s];
+            }
+            for (int e = 0; e < n; e++) {
+                int s = initialSetOf[e];
+                setOf[e] = s;
+                location[e] = past[s];
+                elements[past[s]++] = e;
+            }
+        }
+
+        void mark(int e) {
+            int s = setOf[e];
+            int i = location[e];
+            int j = first[s] + marked[s];
+            if (i < j) {
+                return;
+            }
+            elements[i] = elements[j];
+            location[elements[i]] = i;
+            elements[j] = e;
+            location[e] = j;
+            if (marked[s]++ == 0) {
+                touched[touchedCount++] = s;
+            }
+        }
+
+        void split() {
+            while (touchedCount > 0) {
+                int s = touched[--touchedCount];
+                int j = first[s] + marked[s];
+                if (j == past[s]) {
+                    marked[s] = 0;
+                    continue;
+                }
+                if (marked[s] <= past[s] - j) {
+                    first[sets] = first[s];
+                    past[sets] = j;
+                    first[s] = j;
+                } else {
+                    past[sets] = past[s];
+                    first[sets] = j;
+                    past[s] = j;
+                }
+                for (int i = first[sets]; i < past[sets]; i++) {
+                    setOf[elements[i]] = sets;
+                }
+                marked[s] = 0;
+                marked[sets] = 0;
+                sets++;
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.UnsafeJavaTypeVisitor;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Clones each type the first time it is reached and points the clone's references at clones in the
+ * same pass. A clone is registered before its references are visited, so cycles resolve to it.
+ */
+class JavaTypeCloner extends UnsafeJavaTypeVisitor<Integer> {
+    private final JavaTypeIds ids = new JavaTypeIds();
+    private JavaType[] clones = new JavaType[32];
+
+    JavaTypeCloner() {
+    }
+
+    /**
+     * Starts from clones made earlier, so that types already cloned resolve to the same clones.
+     */
+    JavaTypeCloner(Map<JavaType, JavaType> clones) {
+        clones.forEach(this::register);
+    }
+
+    @Override
+    public JavaType visit(@Nullable JavaType javaType, Integer p) {
+        if (javaType == null) {
+            //noinspection ConstantConditions
+            return null;
+        }
+        int id = ids.idOf(javaType);
+        clones = JavaTypeIds.ensureCapacity(clones, id + 1);
+        JavaType clone = clones[id];
+        if (clone != null) {
+            return clone;
+        }
+
+        clone = copy(javaType);
+        clones[id] = clone;
+        // clones still reference the originals, which this visitor replaces with their clones
+        return clone == javaType ? clone : super.visit(clone, p);
+    }
+
+    void forEachClone(BiConsumer<JavaType, JavaType> action) {
+        for (int id = 0; id < ids.size(); id++) {
+            if (clones[id] != null) {
+                action.accept(ids.type(id), clones[id]);
+            }
+        }
+    }
+
+    private void register(JavaType original, JavaType clone) {
+        int id = ids.idOf(original);
+        clones = JavaTypeIds.ensureCapacity(clones, id + 1);
+        clones[id] = clone;
+    }
+
+    /**
+     * @return A shallow copy of the type, or the type itself if it is immutable.
+     */
+    JavaType copy(JavaType javaType) {
+        if (javaType instanceof JavaType.Array) {
+            JavaType.Array t = (JavaType.Array) javaType;
+            return new JavaType.Array(null, t.getElemType());
+        } else if (javaType instanceof JavaType.Class) {
+            JavaType.Class t = (JavaType.Class) javaType;
+            return new JavaType.Class(null, t.getFlagsBitMap(), t.getFullyQualifiedName(),
+                    t.getKind(), t.getTypeParameters(), t.getSupertype(), t.getOwningClass(), t.getAnnotations(),
+                    t.getInterfaces(), t.getMembers(), t.getMethods());
+        } else if (javaType instanceof JavaType.GenericTypeVariable) {
+            JavaType.GenericTypeVariable t = (JavaType.GenericTypeVariable) javaType;
+            return new JavaType.GenericTypeVariable(null, t.getName(), t.getVariance(), t.getBounds());
+        } else if (javaType instanceof JavaType.Method) {
+            JavaType.Method t = (JavaType.Method) javaType;
+            return new JavaType.Method(null, t.getFlagsBitMap(), t.getDeclaringType(), t.getName(),
+                    t.getReturnType(), t.getParameterNames(), t.getParameterTypes(), t.getThrownExceptions(),
+                    t.getAnnotations());
+        } else if (javaType instanceof JavaType.MultiCatch) {
+            JavaType.MultiCatch t = (JavaType.MultiCatch) javaType;
+            return new JavaType.MultiCatch(t.getThrowableTypes());
+        } else if (javaType instanceof JavaType.Parameterized) {
+            JavaType.Parameterized t = (JavaType.Parameterized) javaType;
+            return new JavaType.Parameterized(null, t.getType(), t.getTypeParameters());
+        } else if (javaType instanceof JavaType.Variable) {
+            JavaType.Variable t = (JavaType.Variable) javaType;
+            return new JavaType.Variable(null, t.getFlagsBitMap(), t.getName(),
+                    t.getOwner(), t.getType(), t.getAnnotations());
+        }
+        return javaType;
+    }
+}
@@ -16,36 +16,54 @@
 package org.openrewrite.sandbox;
 
 import lombok.RequiredArgsConstructor;
-import org.openrewrite.internal.ListUtils;
+import org.openrewrite.Tree;
 import org.openrewrite.internal.lang.Nullable;
 import org.openrewrite.java.JavaVisitor;
 import org.openrewrite.java.UnsafeJavaTypeVisitor;
 import org.openrewrite.java.marker.JavaSourceSet;
+import org.openrewrite.java.tree.J;
 import org.openrewrite.java.tree.JavaType;
 import org.openrewrite.marker.Marker;
 
 import java.util.*;
 
 public class JavaTypeDeduplicationVisitor extends JavaVisitor<Integer> {
+    private final JavaTypeVariants variants;
     private final JavaTypeDeduplicationTypeVisitor typeVisitor;
+    private int treeDepth;
 
     public JavaTypeDeduplicationVisitor(JavaTypeVariants multiRepositoryJavaTypeCache) {
+        this.variants = multiRepositoryJavaTypeCache;
         this.typeVisitor = new JavaTypeDeduplicationTypeVisitor(multiRepositoryJavaTypeCache);
     }
 
+    /**
+     * The classpath of a source set is deduplicated once for all source files that share it, and each
+     * entry only when it is first read.
+     */
     @SuppressWarnings("unchecked")
     @Override
     public <M extends Marker> M visitMarker(Marker marker, Integer p) {
         if (marker instanceof JavaSourceSet) {
-            JavaSourceSet sourceSet = (JavaSourceSet) marker;
-            List<JavaType.FullyQualified> classpath = ListUtils.map(sourceSet.getClasspath(), c ->
-                    (JavaType.FullyQualified) typeVisitor.visit(c, 0));
-            return (M) sourceSet.withClasspath(classpath);
+            return (M) variants.canonicalize((JavaSourceSet) marker);
         }
 
         return (M) marker;
     }
 
+    @Override
+    public J visit(@Nullable Tree tree, Integer p) {
+        if (treeDepth++ > 0) {
+            return super.visit(tree, p);
+        }
+        try {
+            return super.visit(tree, p);
+        } finally {
+            treeDepth = 0;
+            typeVisitor.publishMetrics();
+        }
+    }
+
     @Nullable
     @Override
     public JavaType visitType(@Nullable JavaType javaType, Integer p) {
@@ -53,10 +71,56 @@ public class JavaTypeDeduplicationVisitor extends JavaVisitor<Integer> {
     }
 }
 
+/**
+ * Equivalences are tracked per visitor, so a visitor must stay confined to one thread. Visitors on
+ * different threads may share a {@link JavaTypeVariants}.
+ * <p>
+ * New types are never published one by one while their references are still being rewritten. Types that
+ * refer to each other in a cycle, like a class and its methods, form a strongly connected component, which
+ * is found as the visitor unwinds (Tarjan's algorithm). Only once the whole component is rewritten is it
+ * re-checked against everything published since and published while holding the variants' publication lock,
+ * so a published type is never written to again, and two equivalent components can't both be published.
+ * <p>
+ * Comparing a type with a variant never rewrites anything. Equivalences are only hypothesized while
+ * comparing, and become proven only if the comparison as a whole succeeds.
+ */
 @RequiredArgsConstructor
 class JavaTypeDeduplicationTypeVisitor extends UnsafeJavaTypeVisitor<Integer> {
-    private final Map<JavaType, JavaType> provenEquivalencies = new IdentityHashMap<>();
-    private final Map<JavaType, JavaType> proposedEquivalencies = new IdentityHashMap<>();
+    private final JavaTypeIds ids = new JavaTypeIds();
+    private JavaType[] provenEquivalencies = new JavaType[32];
+    private JavaType[] hypotheses = new JavaType[32];
+    private final List<JavaType> hypothesized = new ArrayList<>();
+
+    /**
+     * Types being rewritten whose component is not complete yet, in the order they were first visited.
+     */
+    private final List<JavaType> pending = new ArrayList<>();
+
+    /**
+     * One past the position of each pending type, or 0 for any other type.
+     */
+    private int[] pendingIndex = new int[32];
+
+    /**
+     * How many variants of each pending type it was compared with before it was rewritten.
+     */
+    private int[] checked = new int[32];
+
+    /**
+     * The lowest pending index reachable from the type being rewritten.
+     */
+    private int lowLink;
+
+    private final JavaTypeMetrics.DedupCounts counts = new JavaTypeMetrics.DedupCounts();
+
+    /**
+     * Comparison outcomes for the intern store, recorded along with the metrics, so that comparing never
+     * waits on the store's lock.
+     */
+    private long[] comparedFingerprints = new long[16];
+    private boolean[] comparedEqual = new boolean[16];
+    private int compared;
+    private int equalityDepth;
 
     private final JavaTypeVariants multiRepoCache;
 
@@ -67,34 +131,166 @@ class JavaTypeDeduplicationTypeVisitor extends UnsafeJavaTypeVisitor<Integer> {
             return null;
         }
 
-        JavaType proven = provenEquivalencies.get(javaType);
+        int id = idOf(javaType);
+        JavaType proven = provenEquivalencies[id];
         if (proven != null) {
+            counts.proven++;
             return proven;
         }
 
-        JavaType proposed = proposedEquivalencies.get(javaType);
-        if (proposed != null) {
-            return proposed;
+        if (pendingIndex[id] > 0) {
+            // a reference back into the component being rewritten
+            lowLink = Math.min(lowLink, pendingIndex[id]);
+            counts.proposed++;
+            return javaType;
+        }
+
+        long fingerprint = JavaTypeFingerprint.of(javaType);
+        JavaTypeVariants.Variants<JavaType> variants = multiRepoCache.variantsOf(fingerprint);
+        JavaType[] snapshot = variants.snapshot();
+        JavaType variant = findEquivalent(javaType, fingerprint, snapshot, 0);
+        if (variant != null) {
+            counts.variant++;
+            return variant;
         }
 
-        Set<JavaType> variants = multiRepoCache.variantsOf(javaType);
-        for (JavaType variant : new ArrayList<>(variants)) {
-            proposedEquivalencies.put(javaType, variant);
-            boolean isSame = isEqual(javaType, variant);
-            proposedEquivalencies.remove(javaType);
+        pending.add(javaType);
+        int index = pending.size();
+        pendingIndex[id] = index;
+        checked[id] = snapshot.length;
+
+        int outerLowLink = lowLink;
+        lowLink = index;
+        super.visit(javaType, p);
+        int low = lowLink;
+        lowLink = Math.min(outerLowLink, low);
+
+        if (low == index) {
+            multiRepoCache.atomically(() -> publishComponent(index - 1));
+        }
+        proven = provenEquivalencies[id];
+        return proven == null ? javaType : proven;
+    }
+
+    void publishMetrics() {
+        counts.publish();
+        JavaTypeInternStore internStore = multiRepoCache.getInternStore();
+        if (internStore != null && compared > 0) {
+            internStore.record(comparedFingerprints, comparedEqual, compared);
+        }
+        compared = 0;
+    }
+
+    /**
+     * Publishes the component of pending types from {@code from} on, all of which have been rewritten. Must be
+     * called while holding the publication lock of the variants.
+     */
+    private Void publishComponent(int from) {
+        List<JavaType> component = pending.subList(from, pending.size());
+
+        // anything published since a type was last compared was published by a complete component
+        boolean anyProven = false;
+        for (JavaType member : component) {
+            int id = idOf(member);
+            if (provenEquivalencies[id] != null) {
+                anyProven = true;
+                continue;
+            }
+            long fingerprint = JavaTypeFingerprint.of(member);
+            JavaType[] snapshot = multiRepoCache.variantsOf(fingerprint).snapshot();
+            if (findEquivalent(member, fingerprint, snapshot, checked[id]) != null) {
+                counts.variant++;
+                anyProven = true;
+            }
+            checked[id] = snapshot.length;
+        }
+
+        if (anyProven) {
+            // point the remaining members at the published equivalents of the others
+            for (JavaType member : component) {
+                if (provenEquivalencies[idOf(member)] == null) {
+                    super.visit(member, 0);
+                }
+            }
+        }
+
+        for (JavaType member : component) {
+            int id = idOf(member);
+            pendingIndex[id] = 0;
+            if (provenEquivalencies[id] == null) {
+                JavaType canonical = multiRepoCache.variantsOf(JavaTypeFingerprint.of(member))
+                        .publish(member, checked[id], variant -> isEquivalent(member, variant));
+                if (canonical == member) {
+                    counts.created++;
+                } else {
+                    counts.variant++;
+                }
+                prove(member, canonical);
+            }
+        }
+        component.clear();
+        return null;
+    }
+
+    @Nullable
+    private JavaType findEquivalent(JavaType javaType, long fingerprint, JavaType[] snapshot, int from) {
+        JavaTypeInternStore internStore = multiRepoCache.getInternStore();
+        int scanned = 0;
+        for (int i = from; i < snapshot.length; i++) {
+            JavaType variant = snapshot[i];
+            if (variant == null) {
+                continue;
+            }
+            scanned++;
+            boolean isSame = isEquivalent(javaType, variant);
+            if (internStore != null) {
+                comparedFingerprints = JavaTypeIds.ensureCapacity(comparedFingerprints, compared + 1);
+                comparedEqual = JavaTypeIds.ensureCapacity(comparedEqual, compared + 1);
+                comparedFingerprints[compared] = fingerprint;
+                comparedEqual[compared++] = isSame;
+            }
             if (isSame) {
-                provenEquivalencies.put(javaType, variant);
+                counts.variantsScanned += scanned;
                 return variant;
             }
         }
+        counts.variantsScanned += scanned;
+        return null;
+    }
 
-        proposedEquivalencies.put(javaType, javaType);
-        JavaType jt = super.visit(javaType, p);
-        proposedEquivalencies.remove(javaType);
+    /**
+     * Compares the type with the variant, proving every equivalence hypothesized along the way if they are
+     * equivalent, and forgetting them all if not.
+     */
+    private boolean isEquivalent(JavaType javaType, JavaType variant) {
+        equalityDepth = 0;
+        boolean isSame = isSame(javaType, variant);
+        for (JavaType type : hypothesized) {
+            int id = idOf(type);
+            if (isSame) {
+                prove(type, hypotheses[id]);
+            }
+            hypotheses[id] = null;
+        }
+        hypothesized.clear();
+        return isSame;
+    }
+
+    private JavaType prove(JavaType javaType, JavaType canonical) {
+        provenEquivalencies[idOf(javaType)] = canonical;
+        provenEquivalencies[idOf(canonical)] = canonical;
+        return canonical;
+    }
 
-        variants.add(jt);
-        provenEquivalencies.put(javaType, jt);
-        return jt;
+    private int idOf(JavaType javaType) {
+        int id = ids.idOf(javaType);
+        if (id >= provenEquivalencies.length) {
+            provenEquivalencies = JavaTypeIds.ensureCapacity(provenEquivalencies, id + 1);
+            hypotheses = JavaTypeIds.ensureCapacity(hypotheses, id + 1);
+            pendingIndex = JavaTypeIds.ensureCapacity(pendingIndex, id + 1);
+            checked = JavaTypeIds.ensureCapacity(checked, id + 1);
+        }
+        return id;
     }
 
     private boolean isEqual(JavaType jt, JavaType variant) {
@@ -149,7 +345,9 @@ class JavaTypeDeduplicationTypeVisitor extends UnsafeJavaTypeVisitor<Integer> {
             JavaType.Variable v = (JavaType.Variable) jt;
             JavaType.Variable varv = (JavaType.Variable) variant;
             return v.getName().equals(varv.getName()) &&
-                    isSame(v.getOwner(), varv.getOwner());
+                    v.getFlagsBitMap() == varv.getFlagsBitMap() &&
+                    isSame(v.getOwner(), varv.getOwner()) &&
+                    isSame(v.getType(), varv.getType());
         } else if (jt instanceof JavaType.MultiCatch) {
             JavaType.MultiCatch m = (JavaType.MultiCatch) jt;
             JavaType.MultiCatch varm = (JavaType.MultiCatch) variant;
@@ -160,17 +358,50 @@ class JavaTypeDeduplicationTypeVisitor extends UnsafeJavaTypeVisitor<Integer> {
     }
 
     private boolean isSame(@Nullable JavaType test, @Nullable JavaType variant) {
-        return visit(test, 0) == variant;
+        if (test == variant) {
+            return true;
+        } else if (test == null || variant == null) {
+            return false;
+        }
+
+        int id = idOf(test);
+        JavaType proven = provenEquivalencies[id];
+        if (proven != null) {
+            return proven == variant;
+        }
+        JavaType hypothesis = hypotheses[id];
+        if (hypothesis != null) {
+            return hypothesis == variant;
+        }
+        if (JavaTypeFingerprint.of(test) != JavaTypeFingerprint.of(variant)) {
+            return false;
+        }
+
+        hypotheses[id] = variant;
+        hypothesized.add(test);
+        if (++equalityDepth > counts.maxEqualityDepth) {
+            counts.maxEqualityDepth = equalityDepth;
+        }
+        boolean isSame = isEqual(test, variant);
+        equalityDepth--;
+        return isSame;
     }
 
+    /**
+     * A missing list is the empty list a getter would return.
+     */
     private boolean isSame(@Nullable List<? extends JavaType> test, @Nullable List<? extends JavaType> variant) {
-        if (test == null && variant == null) {
-            return true;
-        } else if (test == null || variant == null || test.size() != variant.size()) {
+        if (test == null) {
+            test = Collections.emptyList();
+        }
+        if (variant == null) {
+            variant = Collections.emptyList();
+        }
+        if (test.size() != variant.size()) {
             return false;
         }
         for (int i = 0; i < test.size(); i++) {
-            if (visit(test.get(i), 0) != variant.get(i)) {
+            if (!isSame(test.get(i), variant.get(i))) {
                 return false;
             }
         }
@@ -18,16 +18,27 @@ package org.openrewrite.sandbox;
 import org.openrewrite.ExecutionContext;
 import org.openrewrite.Recipe;
 import org.openrewrite.SourceFile;
-import org.openrewrite.internal.ListUtils;
 import org.openrewrite.internal.lang.Nullable;
-import org.openrewrite.java.JavaIsoVisitor;
-import org.openrewrite.java.tree.*;
+import org.openrewrite.java.tree.JavaSourceFile;
+import org.openrewrite.sandbox.table.TypeFootprintReport;
 import org.openrewrite.sandbox.table.TypeReport;
+import org.openrewrite.sandbox.table.TypeWeightReport;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.requireNonNull;
 
 public class JavaTypeDensityStudy extends Recipe {
+    private static final int TOP_TYPES = 100;
+    private static final int PIPELINE_CAPACITY = 4;
+    private static final int STAGE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 3);
+
     transient TypeReport report = new TypeReport(this);
+    transient TypeWeightReport typeWeights = new TypeWeightReport(this);
+    transient TypeFootprintReport footprint = new TypeFootprintReport(this);
+    transient JavaTypeMemberPruner pruner = new JavaTypeMemberPruner(JavaTypeMemberPruner.Visibility.PROTECTED);
 
     @Override
     public String getDisplayName() {
@@ -41,92 +52,116 @@ public class JavaTypeDensityStudy extends Recipe {
 
     @Override
     protected List<SourceFile> visit(List<SourceFile> before, ExecutionContext ctx) {
-        Set<JavaType> privatePackageMethodsInSource = Collections.newSetFromMap(new IdentityHashMap<>());
-
+        // the first phase retains nothing but the identities of the members that pruning keeps for source
+        IdentitySet privateMembersInSource = pruner.scanMembersInSource(before);
+        List<SourceFile> javaSourceFiles = new ArrayList<>(before.size());
         for (SourceFile sourceFile : before) {
-            new JavaIsoVisitor<Integer>() {
-                @Override
-                public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, Integer integer) {
-                    JavaType.Method t = method.getMethodType();
-                    if (t != null && !t.hasFlags(Flag.Public) && !t.hasFlags(Flag.Protected)) {
-                        privatePackageMethodsInSource.add(t);
-                    }
-                    return super.visitMethodDeclaration(method, integer);
-                }
-
-                @Override
-                public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, Integer integer) {
-                    J.ClassDeclaration c = super.visitClassDeclaration(classDecl, integer);
-                    for (Statement stat : c.getBody().getStatements()) {
-                        if (stat instanceof J.VariableDeclarations) {
-                            for (J.VariableDeclarations.NamedVariable variable : ((J.VariableDeclarations) stat).getVariables()) {
-                                JavaType.Variable t = variable.getVariableType();
-                                if (t != null && !t.hasFlags(Flag.Public) && !t.hasFlags(Flag.Protected)) {
-                                    privatePackageMethodsInSource.add(t);
-                                }
-                            }
-                        }
-                    }
-                    return c;
-                }
-            }.visit(sourceFile, 0);
+            if (sourceFile instanceof JavaSourceFile) {
+                javaSourceFiles.add(sourceFile);
+            }
         }
 
-        for (SourceFile cu : before) {
-            if (!(cu instanceof JavaSourceFile)) {
-                continue;
-            }
+        // the second phase hands each file from stage to stage, so that different files are in different stages
+        JavaTypeWeights weights = new JavaTypeWeights();
+        Footprint aggregate = new Footprint();
+        Pipeline.from(javaSourceFiles, PIPELINE_CAPACITY)
+                // deduplicating rewires types in place, so it only ever gets copies, leaving the types as parsed,
+                // which the parser shares between source files, to be read by any number of threads and
+                // weighed as they are
+                .stage("dedup", STAGE_THREADS, cu -> {
+                    long undeduplicatedWeight = JavaTypeUtils.weigh(cu);
+                    aggregate.addParsed(cu);
+                    return new FileStudy(cu, undeduplicatedWeight,
+                            JavaTypeUtils.dedupTypes(JavaTypeUtils.cloneTypes(cu)),
+                            JavaTypeUtils.dedupTypes(JavaTypeUtils.cloneTypes(cu), weights.getVariants()));
+                })
+                .stage("prune", STAGE_THREADS, study -> study.prune(pruner, privateMembersInSource))
+                .stage("weigh", STAGE_THREADS, study -> study.weigh(aggregate))
+                .forEach(study -> {
+                    weights.add(study.canonical);
+                    JavaTypeMetrics.bytesSaved(study.undeduplicatedWeight, study.weight);
+                    report.insertRow(ctx, new TypeReport.Row(
+                            study.cu.getSourcePath().toString(),
+                            study.weight,
+                            study.weightWithoutPrivateMethodsAndFields
+                    ));
+                });
+        // no file is deduplicated against the variants anymore, so no canonical classpath needs to keep the
+        // classpath it was made from for entries not read yet while the weights are reported
+        weights.getVariants().completeClasspaths();
 
-            SourceFile s = JavaTypeUtils.dedupTypes(cu);
+        weights.report(typeWeights, ctx, TOP_TYPES);
+        footprint.insertRow(ctx, new TypeFootprintReport.Row(aggregate.sourceFiles.intValue(),
+                aggregate.weight.sum(), aggregate.weightAfterSingleFileDedup.sum(),
+                aggregate.weightAfterCrossFileDedup.sum()));
+        return before;
+    }
 
-            IdentityHashMap<JavaType, JavaType> typeClones = new IdentityHashMap<>();
-            SourceFile sCloned = JavaTypeUtils.cloneTypes(s, typeClones);
+    /**
+     * What is known about one source file as it moves through the stages. Its copies are collectable once its
+     * row is inserted, apart from the types that the copy deduplicated against shared variants shares with them.
+     */
+    private static class FileStudy {
+        final SourceFile cu;
+        final SourceFile deduplicated;
+        final SourceFile canonical;
 
-            IdentityHashMap<JavaType, JavaType> invertedTypeClones = new IdentityHashMap<>();
-            for (Map.Entry<JavaType, JavaType> entry : typeClones.entrySet()) {
-                invertedTypeClones.put(entry.getValue(), entry.getKey());
-            }
-            typeClones.clear();
-
-            SourceFile noPrivateMethodsAndFields = (SourceFile) new JavaIsoVisitor<Integer>() {
-                @Override
-                public JavaType visitType(@Nullable JavaType javaType, Integer p) {
-                    return new SingleLoopUnsafeJavaTypeVisitor() {
-                        @Override
-                        public JavaType visitClass(JavaType.Class aClass, Integer integer) {
-                            return aClass.unsafeSet(
-                                    ListUtils.map(aClass.getTypeParameters(), t -> visit(t, p)),
-                                    (JavaType.FullyQualified) visit(aClass.getSupertype(), p),
-                                    (JavaType.FullyQualified) visit(aClass.getOwningClass(), p),
-                                    ListUtils.map(aClass.getAnnotations(), a -> (JavaType.FullyQualified) visit(a, p)),
-                                    ListUtils.map(aClass.getInterfaces(), i -> (JavaType.FullyQualified) visit(i, p)),
-                                    ListUtils.map(aClass.getMembers(), m -> {
-                                        if (!privatePackageMethodsInSource.contains(invertedTypeClones.get(m)) &&
-                                            !m.hasFlags(Flag.Public) && !m.hasFlags(Flag.Protected)) {
-                                            return null;
-                                        }
-                                        return (JavaType.Variable) visit(m, p);
-                                    }),
-                                    ListUtils.map(aClass.getMethods(), m -> {
-                                        if (!privatePackageMethodsInSource.contains(invertedTypeClones.get(m)) &&
-                                            !m.hasFlags(Flag.Public) && !m.hasFlags(Flag.Protected)) {
-                                            return null;
-                                        }
-                                        return (JavaType.Method) visit(m, p);
-                                    })
-                            );
-                        }
-                    }.visit(javaType, p);
-                }
-            }.visitNonNull(sCloned, 0);
-
-            report.insertRow(ctx, new TypeReport.Row(
-                    cu.getSourcePath().toString(),
-                    JavaTypeUtils.weigh(s),
-                    JavaTypeUtils.weigh(noPrivateMethodsAndFields)
-            ));
+        @Nullable
+        SourceFile noPrivateMethodsAndFields;
+
+        final long undeduplicatedWeight;
+        long weight;
+        long weightWithoutPrivateMethodsAndFields;
+
+        FileStudy(SourceFile cu, long undeduplicatedWeight, SourceFile deduplicated, SourceFile canonical) {
+            this.cu = cu;
+            this.undeduplicatedWeight = undeduplicatedWeight;
+            this.deduplicated = deduplicated;
+            this.canonical = canonical;
         }
 
-        return before;
+        FileStudy prune(JavaTypeMemberPruner pruner, IdentitySet privateMembersInSource) {
+            noPrivateMethodsAndFields = JavaTypeMemberPruner.overlay(deduplicated,
+                    pruner.pruningOverlay(privateMembersInSource));
+            return this;
+        }
+
+        FileStudy weigh(Footprint aggregate) {
+            weight = JavaTypeUtils.weigh(deduplicated);
+            weightWithoutPrivateMethodsAndFields = JavaTypeUtils.weigh(requireNonNull(noPrivateMethodsAndFields));
+            noPrivateMethodsAndFields = null;
+            aggregate.add(weight, canonical);
+            return this;
+        }
+    }
+
+    /**
+     * Weighs all source files with one visited set per stage that source files share objects in, so that
+     * whatever they share is counted once no matter which thread weighs it. Copies deduplicated on their own
+     * share nothing, so their weight is the sum of what each weighs.
+     * <p>
+     * The sets cost a slot per object weighed. The one for source files as parsed holds objects that the run
+     * keeps anyway. The one for copies deduplicated against shared variants holds its members weakly, so it
+     * doesn't keep a copy beyond its row, and stays exact since an object that was collected can't be weighed
+     * again.
+     */
+    private static class Footprint {
+        final ConcurrentIdentitySet visited = new ConcurrentIdentitySet();
+        final ConcurrentIdentitySet visitedAfterCrossFileDedup = ConcurrentIdentitySet.weak();
+
+        final LongAdder sourceFiles = new LongAdder();
+        final LongAdder weight = new LongAdder();
+        final LongAdder weightAfterSingleFileDedup = new LongAdder();
+        final LongAdder weightAfterCrossFileDedup = new LongAdder();
+
+        void addParsed(SourceFile sourceFile) {
+            sourceFiles.increment();
+            weight.add(JavaTypeUtils.weigh(sourceFile, visited));
+        }
+
+        void add(long singleFileDedupWeight, SourceFile crossFileDedup) {
+            weightAfterSingleFileDedup.add(singleFileDedupWeight);
+            weightAfterCrossFileDedup.add(JavaTypeUtils.weigh(crossFileDedup, visitedAfterCrossFileDedup));
+        }
     }
 }
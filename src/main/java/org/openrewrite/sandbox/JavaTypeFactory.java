@@ -0,0 +1,206 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds types by hash-consing against {@link JavaTypeVariants}, so that a type equal to one already
+ * published is never allocated. Components must already be canonical, which makes comparing them by
+ * identity enough to decide equality.
+ * <p>
+ * Class types cannot be built this way, since their members refer back to them before they are complete.
+ * Build them as usual and {@link #intern(JavaType)} them once complete, which deduplicates the class and
+ * everything it references against the same variants.
+ * <p>
+ * Like the deduplication visitor, a factory must stay confined to one thread. Factories on different
+ * threads may share variants.
+ */
+public class JavaTypeFactory {
+    private final JavaTypeVariants variants;
+    private final JavaTypeDeduplicationTypeVisitor interner;
+
+    public JavaTypeFactory(JavaTypeVariants variants) {
+        this.variants = variants;
+        this.interner = new JavaTypeDeduplicationTypeVisitor(variants);
+    }
+
+    public JavaType.Parameterized parameterized(@Nullable JavaType.FullyQualified type,
+                                                @Nullable List<JavaType> typeParameters) {
+        JavaTypeVariants.Variants<JavaType.Parameterized> v =
+                variants.variantsOf(JavaTypeFingerprint.parameterized(type, typeParameters));
+        JavaType[] snapshot = v.snapshot();
+        for (JavaType variant : snapshot) {
+            if (variant instanceof JavaType.Parameterized) {
+                JavaType.Parameterized p = (JavaType.Parameterized) variant;
+                if (p.getType() == type && same(p.getTypeParameters(), typeParameters)) {
+                    return p;
+                }
+            }
+        }
+        return variants.atomically(() -> v.publish(new JavaType.Parameterized(null, type, typeParameters),
+                snapshot.length, p -> p.getType() == type && same(p.getTypeParameters(), typeParameters)));
+    }
+
+    public JavaType.Array array(@Nullable JavaType elemType) {
+        JavaTypeVariants.Variants<JavaType.Array> v = variants.variantsOf(JavaTypeFingerprint.array(elemType));
+        JavaType[] snapshot = v.snapshot();
+        for (JavaType variant : snapshot) {
+            if (variant instanceof JavaType.Array && ((JavaType.Array) variant).getElemType() == elemType) {
+                return (JavaType.Array) variant;
+            }
+        }
+        return variants.atomically(() -> v.publish(new JavaType.Array(null, elemType), snapshot.length,
+                a -> a.getElemType() == elemType));
+    }
+
+    public JavaType.GenericTypeVariable genericTypeVariable(String name, JavaType.GenericTypeVariable.Variance variance,
+                                                            @Nullable List<JavaType> bounds) {
+        JavaTypeVariants.Variants<JavaType.GenericTypeVariable> v =
+                variants.variantsOf(JavaTypeFingerprint.genericTypeVariable(name, variance, bounds));
+        JavaType[] snapshot = v.snapshot();
+        for (JavaType variant : snapshot) {
+            if (variant instanceof JavaType.GenericTypeVariable) {
+                JavaType.GenericTypeVariable g = (JavaType.GenericTypeVariable) variant;
+                if (g.getName().equals(name) && g.getVariance() == variance && same(g.getBounds(), bounds)) {
+                    return g;
+                }
+            }
+        }
+        return variants.atomically(() -> v.publish(new JavaType.GenericTypeVariable(null, name, variance, bounds),
+                snapshot.length,
+                g -> g.getName().equals(name) && g.getVariance() == variance && same(g.getBounds(), bounds)));
+    }
+
+    /**
+     * A method of a class that is canonical already, such as a method synthesized for a class on the
+     * classpath. The methods of a class under construction refer to it before it is complete, so they can't
+     * be built here. Build them along with their class instead, and {@link #intern(JavaType)} the class, which
+     * interns its methods with it.
+     */
+    public JavaType.Method method(long flagsBitMap, @Nullable JavaType.FullyQualified declaringType, String name,
+                                  @Nullable JavaType returnType, @Nullable List<String> parameterNames,
+                                  @Nullable List<JavaType> parameterTypes,
+                                  @Nullable List<JavaType.FullyQualified> thrownExceptions,
+                                  @Nullable List<JavaType.FullyQualified> annotations) {
+        JavaTypeVariants.Variants<JavaType.Method> v = variants.variantsOf(JavaTypeFingerprint.method(flagsBitMap,
+                declaringType, name, returnType, parameterTypes, thrownExceptions, annotations));
+        JavaType[] snapshot = v.snapshot();
+        for (JavaType variant : snapshot) {
+            if (variant instanceof JavaType.Method && isMethod((JavaType.Method) variant, flagsBitMap,
+                    declaringType, name, returnType, parameterTypes, thrownExceptions, annotations)) {
+                return (JavaType.Method) variant;
+            }
+        }
+        return variants.atomically(() -> v.publish(new JavaType.Method(null, flagsBitMap, declaringType, name,
+                        returnType, parameterNames, parameterTypes, thrownExceptions, annotations), snapshot.length,
+                m -> isMethod(m, flagsBitMap, declaringType, name, returnType, parameterTypes, thrownExceptions,
+                        annotations)));
+    }
+
+    /**
+     * Variables are equal when their names, flags, owners and types are, as in deduplication, so that locals
+     * of one method that share a name are told apart by their types. Annotations are not compared, and the
+     * first variable published wins.
+     */
+    public JavaType.Variable variable(long flagsBitMap, String name, @Nullable JavaType owner,
+                                      @Nullable JavaType type, @Nullable List<JavaType.FullyQualified> annotations) {
+        JavaTypeVariants.Variants<JavaType.Variable> v =
+                variants.variantsOf(JavaTypeFingerprint.variable(flagsBitMap, name, owner, type));
+        JavaType[] snapshot = v.snapshot();
+        for (JavaType variant : snapshot) {
+            if (variant instanceof JavaType.Variable && isVariable((JavaType.Variable) variant, flagsBitMap, name,
+                    owner, type)) {
+                return (JavaType.Variable) variant;
+            }
+        }
+        return variants.atomically(() -> v.publish(new JavaType.Variable(null, flagsBitMap, name, owner, type,
+                annotations), snapshot.length, var -> isVariable(var, flagsBitMap, name, owner, type)));
+    }
+
+    public JavaType.MultiCatch multiCatch(@Nullable List<JavaType> throwableTypes) {
+        JavaTypeVariants.Variants<JavaType.MultiCatch> v =
+                variants.variantsOf(JavaTypeFingerprint.multiCatch(throwableTypes));
+        JavaType[] snapshot = v.snapshot();
+        for (JavaType variant : snapshot) {
+            if (variant instanceof JavaType.MultiCatch &&
+                    same(((JavaType.MultiCatch) variant).getThrowableTypes(), throwableTypes)) {
+                return (JavaType.MultiCatch) variant;
+            }
+        }
+        return variants.atomically(() -> v.publish(new JavaType.MultiCatch(throwableTypes), snapshot.length,
+                m -> same(m.getThrowableTypes(), throwableTypes)));
+    }
+
+    /**
+     * @return The canonical type equal to a completed type, such as a class built outside the factory.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends JavaType> T intern(T completed) {
+        try {
+            return (T) interner.visit(completed, 0);
+        } finally {
+            interner.publishMetrics();
+        }
+    }
+
+    private static boolean isVariable(JavaType.Variable v, long flagsBitMap, String name, @Nullable JavaType owner,
+                                      @Nullable JavaType type) {
+        return v.getName().equals(name) &&
+                v.getFlagsBitMap() == flagsBitMap &&
+                v.getOwner() == owner &&
+                v.getType() == type;
+    }
+
+    private static boolean isMethod(JavaType.Method m, long flagsBitMap, @Nullable JavaType.FullyQualified declaringType,
+                                    String name, @Nullable JavaType returnType,
+                                    @Nullable List<JavaType> parameterTypes,
+                                    @Nullable List<JavaType.FullyQualified> thrownExceptions,
+                                    @Nullable List<JavaType.FullyQualified> annotations) {
+        return m.getName().equals(name) &&
+                m.getFlagsBitMap() == flagsBitMap &&
+                m.getDeclaringType() == declaringType &&
+                m.getReturnType() == returnType &&
+                same(m.getParameterTypes(), parameterTypes) &&
+                same(m.getThrownExceptions(), thrownExceptions) &&
+                same(m.getAnnotations(), annotations);
+    }
+
+    /**
+     * Compares by identity, where a missing list is the empty list a getter would return.
+     */
+    private static boolean same(@Nullable List<? extends JavaType> built, @Nullable List<? extends JavaType> components) {
+        if (built == null) {
+            built = Collections.emptyList();
+        }
+        if (components == null) {
+            components = Collections.emptyList();
+        }
+        if (built.size() != components.size()) {
+            return false;
+        }
+        for (int i = 0; i < built.size(); i++) {
+            if (built.get(i) != components.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
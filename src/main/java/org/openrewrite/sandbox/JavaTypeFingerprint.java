@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.List;
+
+/**
+ * A 64-bit structural fingerprint covering exactly the fields that {@link JavaTypeDeduplicationTypeVisitor}
+ * compares, where references to other types contribute only their shallow {@link #label(JavaType)}.
+ * Equal types always share a fingerprint, and computing one never allocates. Types that are not built yet
+ * can be fingerprinted from the components they would be built from.
+ */
+final class JavaTypeFingerprint {
+    private static final long PRIME = 0x100000001b3L;
+
+    private static final long NULL = 0x6a09e667f3bcc908L;
+    private static final long CLASS = 0xbb67ae8584caa73bL;
+    private static final long PARAMETERIZED = 0x3c6ef372fe94f82bL;
+    private static final long ARRAY = 0xa54ff53a5f1d36f1L;
+    private static final long GENERIC_TYPE_VARIABLE = 0x510e527fade682d1L;
+    private static final long METHOD = 0x9b05688c2b3e6c1fL;
+    private static final long VARIABLE = 0x1f83d9abfb41bd6bL;
+    private static final long MULTI_CATCH = 0x5be0cd19137e2179L;
+    private static final long PRIMITIVE = 0xcbbb9d5dc1059ed8L;
+
+    private JavaTypeFingerprint() {
+    }
+
+    static long of(JavaType type) {
+        if (type instanceof JavaType.Class) {
+            JavaType.Class c = (JavaType.Class) type;
+            long h = label(type);
+            h = step(h, c.getOwningClass());
+            h = step(h, c.getSupertype());
+            h = step(h, c.getInterfaces());
+            h = step(h, c.getMethods());
+            h = step(h, c.getMembers());
+            h = step(h, c.getAnnotations());
+            h = step(h, c.getTypeParameters());
+            return finish(h);
+        } else if (type instanceof JavaType.Parameterized) {
+            JavaType.Parameterized p = (JavaType.Parameterized) type;
+            return parameterized(p.getType(), p.getTypeParameters());
+        } else if (type instanceof JavaType.Array) {
+            return array(((JavaType.Array) type).getElemType());
+        } else if (type instanceof JavaType.GenericTypeVariable) {
+            JavaType.GenericTypeVariable g = (JavaType.GenericTypeVariable) type;
+            return genericTypeVariable(g.getName(), g.getVariance(), g.getBounds());
+        } else if (type instanceof JavaType.Method) {
+            JavaType.Method m = (JavaType.Method) type;
+            return method(m.getFlagsBitMap(), m.getDeclaringType(), m.getName(), m.getReturnType(),
+                    m.getParameterTypes(), m.getThrownExceptions(), m.getAnnotations());
+        } else if (type instanceof JavaType.Variable) {
+            JavaType.Variable v = (JavaType.Variable) type;
+            return variable(v.getFlagsBitMap(), v.getName(), v.getOwner(), v.getType());
+        } else if (type instanceof JavaType.MultiCatch) {
+            return multiCatch(((JavaType.MultiCatch) type).getThrowableTypes());
+        }
+        return finish(label(type));
+    }
+
+    static long parameterized(@Nullable JavaType type, @Nullable List<? extends JavaType> typeParameters) {
+        return finish(step(step(PARAMETERIZED, type), typeParameters));
+    }
+
+    static long array(@Nullable JavaType elemType) {
+        return finish(step(ARRAY, elemType));
+    }
+
+    static long genericTypeVariable(String name, JavaType.GenericTypeVariable.Variance variance,
+                                    @Nullable List<? extends JavaType> bounds) {
+        return finish(step(genericTypeVariableLabel(name, variance), bounds));
+    }
+
+    static long method(long flagsBitMap, @Nullable JavaType declaringType, String name,
+                       @Nullable JavaType returnType, @Nullable List<? extends JavaType> parameterTypes,
+                       @Nullable List<? extends JavaType> thrownExceptions,
+                       @Nullable List<? extends JavaType> annotations) {
+        long h = methodLabel(name, flagsBitMap);
+        h = step(h, annotations);
+        h = step(h, parameterTypes);
+        h = step(h, returnType);
+        h = step(h, thrownExceptions);
+        h = step(h, declaringType);
+        return finish(h);
+    }
+
+    static long variable(long flagsBitMap, String name, @Nullable JavaType owner, @Nullable JavaType type) {
+        return finish(step(step(variableLabel(name, flagsBitMap), owner), type));
+    }
+
+    static long multiCatch(@Nullable List<? extends JavaType> throwableTypes) {
+        return finish(step(MULTI_CATCH, throwableTypes));
+    }
+
+    /**
+     * Everything that is compared about a type other than its references to other types.
+     */
+    static long label(@Nullable JavaType type) {
+        if (type == null) {
+            return NULL;
+        } else if (type instanceof JavaType.Class) {
+            JavaType.Class c = (JavaType.Class) type;
+            return step(step(step(CLASS, c.getFlagsBitMap()), c.getFullyQualifiedName().hashCode()),
+                    c.getKind().ordinal());
+        } else if (type instanceof JavaType.Parameterized) {
+            return PARAMETERIZED;
+        } else if (type instanceof JavaType.Array) {
+            return ARRAY;
+        } else if (type instanceof JavaType.GenericTypeVariable) {
+            JavaType.GenericTypeVariable g = (JavaType.GenericTypeVariable) type;
+            return genericTypeVariableLabel(g.getName(), g.getVariance());
+        } else if (type instanceof JavaType.Method) {
+            JavaType.Method m = (JavaType.Method) type;
+            return methodLabel(m.getName(), m.getFlagsBitMap());
+        } else if (type instanceof JavaType.Variable) {
+            JavaType.Variable v = (JavaType.Variable) type;
+            return variableLabel(v.getName(), v.getFlagsBitMap());
+        } else if (type instanceof JavaType.MultiCatch) {
+            return MULTI_CATCH;
+        } else if (type instanceof JavaType.Primitive) {
+            return step(PRIMITIVE, ((JavaType.Primitive) type).ordinal());
+        }
+        return type.getClass().getName().hashCode();
+    }
+
+    private static long genericTypeVariableLabel(String name, JavaType.GenericTypeVariable.Variance variance) {
+        return step(step(GENERIC_TYPE_VARIABLE, name.hashCode()), variance.ordinal());
+    }
+
+    private static long methodLabel(String name, long flagsBitMap) {
+        return step(step(METHOD, name.hashCode()), flagsBitMap);
+    }
+
+    private static long variableLabel(String name, long flagsBitMap) {
+        return step(step(VARIABLE, name.hashCode()), flagsBitMap);
+    }
+
+    private static long step(long h, @Nullable JavaType reference) {
+        return step(h, label(reference));
+    }
+
+    private static long step(long h, @Nullable List<? extends JavaType> references) {
+        // getters return an empty list where a type was built without one
+        if (references == null) {
+            return step(h, 0);
+        }
+        h = step(h, references.size());
+        for (int i = 0; i < references.size(); i++) {
+            h = step(h, label(references.get(i)));
+        }
+        return h;
+    }
+
+    private static long step(long h, long v) {
+        return (h ^ v) * PRIME;
+    }
+
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.Arrays;
+
+/**
+ * Assigns each type a dense int id the first time it is seen, so that equivalences, clones and visited
+ * flags can be kept in arrays indexed by id. Only {@link #idOf(JavaType)} hashes, once per lookup, into an
+ * open-addressing table compared by identity, and no entries or boxed values are allocated.
+ */
+final class JavaTypeIds {
+    private static final int ABSENT = -1;
+
+    private Object[] keys = new Object[64];
+    private int[] values = new int[64];
+    private JavaType[] types = new JavaType[32];
+    private int size;
+
+    /**
+     * @return The id of the type, assigning the next id if the type has not been seen before.
+     */
+    int idOf(JavaType type) {
+        int mask = keys.length - 1;
+        int i = hash(type) & mask;
+        Object existing;
+        while ((existing = keys[i]) != null) {
+            if (existing == type) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+
+        int id = size++;
+        keys[i] = type;
+        values[i] = id;
+        if (id == types.length) {
+            types = Arrays.copyOf(types, id * 2);
+        }
+        types[id] = type;
+        if (size > keys.length >>> 1) {
+            resize();
+        }
+        return id;
+    }
+
+    /**
+     * @return The id of the type, or -1 if it has not been assigned one.
+     */
+    int find(JavaType type) {
+        int mask = keys.length - 1;
+        int i = hash(type) & mask;
+        Object existing;
+        while ((existing = keys[i]) != null) {
+            if (existing == type) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return ABSENT;
+    }
+
+    JavaType type(int id) {
+        return types[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return An array at least large enough to be indexed by every id assigned so far.
+     */
+    static <T> T[] ensureCapacity(T[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    static int[] ensureCapacity(int[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    static long[] ensureCapacity(long[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    static boolean[] ensureCapacity(boolean[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new Object[oldKeys.length << 1];
+        values = new int[oldKeys.length << 1];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = hash(oldKeys[j]) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int hash(Object o) {
+        int h = System.identityHashCode(o) * 0x85ebca6b;
+        return h ^ (h >>> 16);
+    }
+}
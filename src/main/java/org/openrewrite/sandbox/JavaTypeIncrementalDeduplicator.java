@@ -0,0 +1,290 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.SourceFile;
+import org.openrewrite.internal.ListUtils;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.marker.JavaSourceSet;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+import org.openrewrite.marker.Marker;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Deduplicates the types of a repository run after run, only comparing types of the source files that are
+ * new or changed since the previous run. An unchanged source file, as recognized by its printed source, the
+ * fingerprints of the types it holds, of everything those reach through types declared in the repository's
+ * source, and of everything its classpath reaches, gets the canonical types it was given last time in place
+ * of its own, without any comparison. So a source file that only holds {@code List<B>} is deduplicated again
+ * when {@code B}, declared in another source file, changes.
+ * <p>
+ * Canonical types that no source file reaches anymore are retired from the variants once a run has added,
+ * changed or removed source files, which is safe while others deduplicate against the same variants. A
+ * dependency upgrade changes the classpath and so every source file of its source set. A change that is
+ * only visible deep in the type graph of a type that is not on the classpath, such as one of the JDK, is
+ * not recognized; {@link #reset()} after such changes.
+ */
+public class JavaTypeIncrementalDeduplicator {
+    private final JavaTypeVariants variants;
+    private final Map<Path, Snapshot> snapshots = new HashMap<>();
+
+    /**
+     * The canonical types reachable from the source files of the previous run.
+     */
+    private JavaType[] canonical = new JavaType[0];
+
+    public JavaTypeIncrementalDeduplicator() {
+        this(new JavaTypeVariants());
+    }
+
+    public JavaTypeIncrementalDeduplicator(JavaTypeVariants variants) {
+        this.variants = variants;
+    }
+
+    /**
+     * @param sourceFiles Every source file of the repository. Source files of the previous run that are
+     *                    missing are considered removed.
+     */
+    public List<SourceFile> dedupTypes(List<SourceFile> sourceFiles) {
+        Set<Path> paths = new HashSet<>();
+        // source files of a source set share its classpath, which is only fingerprinted once per run
+        Map<List<JavaType.FullyQualified>, Long> classpaths = new IdentityHashMap<>();
+        Set<String> declared = declaredTypes(sourceFiles);
+        boolean[] changed = new boolean[1];
+        List<SourceFile> deduped = ListUtils.map(sourceFiles, sourceFile -> {
+            paths.add(sourceFile.getSourcePath());
+            List<JavaType> types = new ArrayList<>();
+            long fingerprint = fingerprint(sourceFile, types, declared, classpaths);
+            Snapshot previous = snapshots.get(sourceFile.getSourcePath());
+            if (previous != null && previous.fingerprint == fingerprint) {
+                return previous.attach(sourceFile);
+            }
+
+            changed[0] = true;
+            SourceFile s = (SourceFile) new JavaTypeDeduplicationVisitor(variants).visitNonNull(sourceFile, 0);
+            types.clear();
+            collect(s, types);
+            snapshots.put(sourceFile.getSourcePath(), new Snapshot(fingerprint, types.toArray(new JavaType[0])));
+            return s;
+        });
+
+        if (snapshots.keySet().retainAll(paths) || changed[0]) {
+            retire();
+        }
+        return deduped;
+    }
+
+    /**
+     * Forgets every source file, so that the next run deduplicates all of them. Canonical types already
+     * published remain in the variants.
+     */
+    public void reset() {
+        snapshots.clear();
+        canonical = new JavaType[0];
+    }
+
+    /**
+     * Marks the canonical types that source files still reach, and retires those of the previous run
+     * that are not marked.
+     */
+    private void retire() {
+        IdentitySet marked = new IdentitySet(canonical.length);
+        List<JavaType> reachable = new ArrayList<>(canonical.length);
+        Deque<JavaType> stack = new ArrayDeque<>();
+        for (Snapshot snapshot : snapshots.values()) {
+            for (JavaType type : snapshot.types) {
+                if (type != null && marked.add(type)) {
+                    stack.push(type);
+                }
+            }
+        }
+        while (!stack.isEmpty()) {
+            JavaType type = stack.pop();
+            reachable.add(type);
+            JavaTypeUtils.forEachReference(type, reference -> {
+                if (reference != null && marked.add(reference)) {
+                    stack.push(reference);
+                }
+            });
+        }
+
+        for (JavaType type : canonical) {
+            if (!marked.contains(type)) {
+                variants.retire(type);
+            }
+        }
+        canonical = reachable.toArray(new JavaType[0]);
+    }
+
+    /**
+     * Combines the printed source with the fingerprint of every type the source file holds, in the order
+     * they are collected into {@code types}, with those of the types they reach through types declared in
+     * source, and with that of its classpath.
+     */
+    private static long fingerprint(SourceFile sourceFile, List<JavaType> types, Set<String> declared,
+                                    Map<List<JavaType.FullyQualified>, Long> classpaths) {
+        collect(sourceFile, types);
+        long h = sourceFile.getMarkers().findFirst(JavaSourceSet.class)
+                .map(sourceSet -> classpaths.computeIfAbsent(sourceSet.getClasspath(),
+                        JavaTypeIncrementalDeduplicator::fingerprint))
+                .orElse(0xcbf29ce484222325L);
+        String source = sourceFile.printAll();
+        for (int i = 0; i < source.length(); i++) {
+            h = (h ^ source.charAt(i)) * 0x100000001b3L;
+        }
+        IdentitySet visited = new IdentitySet();
+        for (JavaType type : types) {
+            h = (h ^ (type == null ? 0 : JavaTypeFingerprint.of(type))) * 0x100000001b3L;
+            if (type != null && visited.add(type)) {
+                h = (h ^ reachableFingerprint(type, declared, visited)) * 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Combines the fingerprints of the types reachable from the type that have not been visited before. A
+     * type's fingerprint only covers its own references, so whatever a type declared in source refers to
+     * is followed, however deep. Classes declared elsewhere are not followed: those on the classpath are
+     * covered by its fingerprint, and those of the JDK are not expected to change.
+     */
+    private static long reachableFingerprint(JavaType root, Set<String> declared, IdentitySet visited) {
+        long h = 0xcbf29ce484222325L;
+        Deque<JavaType> stack = new ArrayDeque<>();
+        List<JavaType> references = new ArrayList<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            JavaType type = stack.pop();
+            if (type instanceof JavaType.Class &&
+                    !declared.contains(((JavaType.Class) type).getFullyQualifiedName())) {
+                continue;
+            }
+            references.clear();
+            JavaTypeUtils.forEachReference(type, references::add);
+            for (JavaType reference : references) {
+                if (reference != null && visited.add(reference)) {
+                    h = (h ^ JavaTypeFingerprint.of(reference)) * 0x100000001b3L;
+                    stack.push(reference);
+                }
+            }
+        }
+        return h;
+    }
+
+    /**
+     * @return The fully qualified names of the classes the source files declare.
+     */
+    private static Set<String> declaredTypes(List<SourceFile> sourceFiles) {
+        Set<String> declared = new HashSet<>();
+        JavaIsoVisitor<Integer> scanner = new JavaIsoVisitor<Integer>() {
+            @Override
+            public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, Integer p) {
+                if (classDecl.getType() != null) {
+                    declared.add(classDecl.getType().getFullyQualifiedName());
+                }
+                return super.visitClassDeclaration(classDecl, p);
+            }
+        };
+        for (SourceFile sourceFile : sourceFiles) {
+            scanner.visit(sourceFile, 0);
+        }
+        return declared;
+    }
+
+    /**
+     * Combines the fingerprints of every type the classpath reaches, so that a dependency that changes any
+     * of them, however deep, changes the fingerprint, which per type only covers its own references.
+     */
+    private static long fingerprint(List<JavaType.FullyQualified> classpath) {
+        long h = 0xcbf29ce484222325L;
+        IdentitySet visited = new IdentitySet();
+        Deque<JavaType> stack = new ArrayDeque<>();
+        for (int i = classpath.size() - 1; i >= 0; i--) {
+            if (classpath.get(i) != null) {
+                stack.push(classpath.get(i));
+            }
+        }
+        while (!stack.isEmpty()) {
+            JavaType type = stack.pop();
+            if (!visited.add(type)) {
+                continue;
+            }
+            h = (h ^ JavaTypeFingerprint.of(type)) * 0x100000001b3L;
+            JavaTypeUtils.forEachReference(type, reference -> {
+                if (reference != null && !visited.contains(reference)) {
+                    stack.push(reference);
+                }
+            });
+        }
+        return h;
+    }
+
+    /**
+     * Collects types in the order {@link JavaTypeTable} lays them out: as visited, followed by the classpath.
+     */
+    private static void collect(SourceFile sourceFile, List<JavaType> types) {
+        new JavaIsoVisitor<Integer>() {
+            @Override
+            public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                types.add(javaType);
+                return javaType;
+            }
+
+            @Override
+            public <M extends Marker> M visitMarker(Marker marker, Integer p) {
+                if (marker instanceof JavaSourceSet) {
+                    types.addAll(((JavaSourceSet) marker).getClasspath());
+                }
+                return super.visitMarker(marker, p);
+            }
+        }.visit(sourceFile, 0);
+    }
+
+    private static class Snapshot {
+        private final long fingerprint;
+        private final JavaType[] types;
+
+        Snapshot(long fingerprint, JavaType[] types) {
+            this.fingerprint = fingerprint;
+            this.types = types;
+        }
+
+        SourceFile attach(SourceFile sourceFile) {
+            int[] next = new int[1];
+            return (SourceFile) new JavaIsoVisitor<Integer>() {
+                @Override
+                public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                    return types[next[0]++];
+                }
+
+                @SuppressWarnings("unchecked")
+                @Override
+                public <M extends Marker> M visitMarker(Marker marker, Integer p) {
+                    if (marker instanceof JavaSourceSet) {
+                        JavaSourceSet sourceSet = (JavaSourceSet) marker;
+                        return (M) sourceSet.withClasspath(ListUtils.map(sourceSet.getClasspath(),
+                                c -> (JavaType.FullyQualified) types[next[0]++]));
+                    }
+                    return super.visitMarker(marker, p);
+                }
+            }.visitNonNull(sourceFile, 0);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A memory-mapped record of what runs learned about each structural fingerprint. A fingerprint is verified
+ * once a type carrying it has been proven equal to an existing variant, and becomes ambiguous for good as soon
+ * as two types carrying it turn out to differ. The fingerprint only covers the shallow labels of referenced
+ * types, so {@code foo(List<String>)} and {@code foo(List<Integer>)} share one, and a verified fingerprint is
+ * never a substitute for comparing a type with the variant. What the store is good for is telling, across
+ * runs and repositories, how often fingerprints alone would have told types apart.
+ * <p>
+ * The file is locked exclusively while open, so runs share it one after the other, never at the same time.
+ * The table is open-addressed over 16-byte slots (fingerprint, state) and does not grow: once three
+ * quarters full, new fingerprints are no longer recorded.
+ */
+public class JavaTypeInternStore implements Closeable {
+    private static final int MAGIC = 0x4a544953;
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 16;
+    private static final int SIZE_OFFSET = 12;
+
+    private static final long EMPTY = 0;
+    private static final long VERIFIED = 1;
+    private static final long AMBIGUOUS = 2;
+
+    /**
+     * Stores open in this JVM, which must not even open a second channel on their file, since closing it could
+     * release the lock held through the first.
+     */
+    private static final Set<Path> OPEN = ConcurrentHashMap.newKeySet();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final MappedByteBuffer buffer;
+    private final int mask;
+    private final int maxSize;
+    private int size;
+
+    private JavaTypeInternStore(Path path, FileChannel channel, FileLock lock, MappedByteBuffer buffer,
+                                int capacity, int size) {
+        this.path = path;
+        this.channel = channel;
+        this.lock = lock;
+        this.buffer = buffer;
+        this.mask = capacity - 1;
+        this.maxSize = capacity / 4 * 3;
+        this.size = size;
+    }
+
+    /**
+     * @param capacity The number of slots of a newly created store. Ignored when the file already exists.
+     * @throws IllegalStateException If the file is not a store, or another store has it open.
+     */
+    public static JavaTypeInternStore open(Path path, int capacity) {
+        path = path.toAbsolutePath().normalize();
+        if (!OPEN.add(path)) {
+            throw new IllegalStateException(path + " is in use by another type intern store");
+        }
+        FileChannel channel = null;
+        JavaTypeInternStore store = null;
+        try {
+            channel = FileChannel.open(path, CREATE, READ, WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                throw new IllegalStateException(path + " is in use by another type intern store");
+            }
+
+            boolean exists = channel.size() > 0;
+            if (exists) {
+                if (channel.size() < HEADER_SIZE) {
+                    throw new IllegalStateException(path + " is not a type intern store of version " + VERSION);
+                }
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                capacity = header.getInt(8);
+                boolean valid = header.getInt(0) == MAGIC && header.getInt(4) == VERSION &&
+                        capacity > 0 && Integer.bitCount(capacity) == 1 &&
+                        channel.size() >= HEADER_SIZE + (long) capacity * SLOT_SIZE &&
+                        header.getInt(SIZE_OFFSET) >= 0 && header.getInt(SIZE_OFFSET) <= capacity / 4 * 3;
+                if (!valid) {
+                    throw new IllegalStateException(path + " is not a type intern store of version " + VERSION);
+                }
+            } else {
+                capacity = Integer.highestOneBit(Math.min(Math.max(capacity, 16), 1 << 26) - 1) << 1;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) capacity * SLOT_SIZE);
+            if (!exists) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, capacity);
+                buffer.putInt(SIZE_OFFSET, 0);
+            }
+            store = new JavaTypeInternStore(path, channel, lock, buffer, capacity, buffer.getInt(SIZE_OFFSET));
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (store == null) {
+                OPEN.remove(path);
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // already failing
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized boolean isVerified(long fingerprint) {
+        int slot = find(fingerprint);
+        return slot >= 0 && state(slot) == VERIFIED;
+    }
+
+    /**
+     * Records the outcome of comparing a type with a variant sharing its fingerprint.
+     */
+    public synchronized void record(long fingerprint, boolean equal) {
+        doRecord(fingerprint, equal);
+    }
+
+    /**
+     * Records the outcomes of the first {@code count} comparisons in order, taking the lock once for all of
+     * them, so that deduplication can buffer outcomes rather than wait on the lock for every comparison.
+     */
+    public synchronized void record(long[] fingerprints, boolean[] equal, int count) {
+        for (int i = 0; i < count; i++) {
+            doRecord(fingerprints[i], equal[i]);
+        }
+    }
+
+    private void doRecord(long fingerprint, boolean equal) {
+        int slot = find(fingerprint);
+        if (slot < 0) {
+            if (size >= maxSize) {
+                return;
+            }
+            slot = ~slot;
+            buffer.putLong(offset(slot), fingerprint);
+            buffer.putInt(SIZE_OFFSET, ++size);
+        } else if (state(slot) == AMBIGUOUS) {
+            return;
+        }
+        buffer.putLong(offset(slot) + 8, equal ? VERIFIED : AMBIGUOUS);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The slot holding the fingerprint, or the complement of the empty slot where it belongs.
+     */
+    private int find(long fingerprint) {
+        int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        while (state(slot) != EMPTY) {
+            if (buffer.getLong(offset(slot)) == fingerprint) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+
+    private long state(int slot) {
+        return buffer.getLong(offset(slot) + 8);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        try {
+            lock.release();
+            channel.close();
+        } finally {
+            OPEN.remove(path);
+        }
+    }
+}
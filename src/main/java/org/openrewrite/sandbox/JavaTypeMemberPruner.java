@@ -0,0 +1,212 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.SourceFile;
+import org.openrewrite.internal.ListUtils;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.marker.JavaSourceSet;
+import org.openrewrite.java.tree.Flag;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+import org.openrewrite.marker.Marker;
+
+import java.util.List;
+
+/**
+ * Drops the fields and methods of class types, including those on the classpath, that no source file
+ * declares or references and that are less visible than the policy allows. The originals may be shared
+ * with LSTs the caller still holds, so they are never rewritten. Only the classes that lose members and the
+ * types that reach them are copied, and the source files are then deduplicated from clones of their types.
+ */
+public class JavaTypeMemberPruner {
+    public enum Visibility {
+        PUBLIC,
+        PROTECTED,
+        PACKAGE_PRIVATE;
+
+        boolean retains(JavaType.Variable member) {
+            return retains(member.hasFlags(Flag.Public), member.hasFlags(Flag.Protected),
+                    member.hasFlags(Flag.Private));
+        }
+
+        boolean retains(JavaType.Method member) {
+            return retains(member.hasFlags(Flag.Public), member.hasFlags(Flag.Protected),
+                    member.hasFlags(Flag.Private));
+        }
+
+        private boolean retains(boolean isPublic, boolean isProtected, boolean isPrivate) {
+            switch (this) {
+                case PUBLIC:
+                    return isPublic;
+                case PROTECTED:
+                    return isPublic || isProtected;
+                default:
+                    return !isPrivate;
+            }
+        }
+    }
+
+    private final Visibility visibility;
+
+    public JavaTypeMemberPruner(Visibility visibility) {
+        this.visibility = visibility;
+    }
+
+    public List<SourceFile> prune(List<SourceFile> sourceFiles) {
+        // one overlay for every file, so that types shared between files stay shared, which like a cloner
+        // remembers every type it has seen until pruning is done
+        JavaTypeOverlay overlay = pruningOverlay(scanMembersInSource(sourceFiles));
+        List<SourceFile> pruned = ListUtils.map(sourceFiles, sourceFile -> overlay(sourceFile, overlay));
+        // the overlay still refers to the caller's types, which only clones of them are deduplicated from
+        return JavaTypeUtils.dedupTypes(pruned, new JavaTypeVariants());
+    }
+
+    /**
+     * Collects the members that source declares or references and the policy would otherwise drop. Only
+     * fields are members, not the local variables and parameters owned by methods.
+     */
+    IdentitySet scanMembersInSource(List<SourceFile> sourceFiles) {
+        IdentitySet membersInSource = new IdentitySet();
+        JavaIsoVisitor<Integer> scanner = new JavaIsoVisitor<Integer>() {
+            @Override
+            public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, Integer p) {
+                add(method.getMethodType());
+                return super.visitMethodDeclaration(method, p);
+            }
+
+            @Override
+            public J.VariableDeclarations.NamedVariable visitVariable(J.VariableDeclarations.NamedVariable variable, Integer p) {
+                add(variable.getVariableType());
+                return super.visitVariable(variable, p);
+            }
+
+            @Override
+            public J.MethodInvocation visitMethodInvocation(J.MethodInvocation method, Integer p) {
+                add(method.getMethodType());
+                return super.visitMethodInvocation(method, p);
+            }
+
+            @Override
+            public J.NewClass visitNewClass(J.NewClass newClass, Integer p) {
+                add(newClass.getConstructorType());
+                return super.visitNewClass(newClass, p);
+            }
+
+            @Override
+            public J.MemberReference visitMemberReference(J.MemberReference memberRef, Integer p) {
+                add(memberRef.getMethodType());
+                add(memberRef.getVariableType());
+                return super.visitMemberReference(memberRef, p);
+            }
+
+            @Override
+            public J.Identifier visitIdentifier(J.Identifier identifier, Integer p) {
+                add(identifier.getFieldType());
+                return super.visitIdentifier(identifier, p);
+            }
+
+            private void add(@Nullable JavaType.Method member) {
+                if (member != null && !visibility.retains(member)) {
+                    membersInSource.add(member);
+                }
+            }
+
+            private void add(@Nullable JavaType.Variable member) {
+                if (member != null && member.getOwner() instanceof JavaType.FullyQualified &&
+                        !visibility.retains(member)) {
+                    membersInSource.add(member);
+                }
+            }
+        };
+        for (SourceFile sourceFile : sourceFiles) {
+            scanner.visit(sourceFile, 0);
+        }
+        return membersInSource;
+    }
+
+    /**
+     * Copies only the classes that lose members, and the types that reach them, keeping the members in
+     * {@code keep}.
+     */
+    JavaTypeOverlay pruningOverlay(IdentitySet keep) {
+        return new JavaTypeOverlay() {
+            @Override
+            boolean changes(JavaType javaType) {
+                if (javaType instanceof JavaType.Class) {
+                    JavaType.Class aClass = (JavaType.Class) javaType;
+                    for (JavaType.Variable member : aClass.getMembers()) {
+                        if (!retains(member, keep)) {
+                            return true;
+                        }
+                    }
+                    for (JavaType.Method method : aClass.getMethods()) {
+                        if (!retains(method, keep)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            JavaType copy(JavaType javaType) {
+                JavaType copy = super.copy(javaType);
+                if (copy instanceof JavaType.Class) {
+                    JavaType.Class aClass = (JavaType.Class) copy;
+                    return aClass.unsafeSet(aClass.getTypeParameters(), aClass.getSupertype(), aClass.getOwningClass(),
+                            aClass.getAnnotations(), aClass.getInterfaces(),
+                            ListUtils.map(aClass.getMembers(), m -> retains(m, keep) ? m : null),
+                            ListUtils.map(aClass.getMethods(), m -> retains(m, keep) ? m : null));
+                }
+                return copy;
+            }
+        };
+    }
+
+    private boolean retains(JavaType.Variable member, IdentitySet keep) {
+        return keep.contains(member) || visibility.retains(member);
+    }
+
+    private boolean retains(JavaType.Method method, IdentitySet keep) {
+        return keep.contains(method) || visibility.retains(method);
+    }
+
+    /**
+     * Replaces the types of the source file and of its classpath with the overlay's, leaving the originals
+     * untouched.
+     */
+    static SourceFile overlay(SourceFile sourceFile, JavaTypeOverlay overlay) {
+        return (SourceFile) new JavaIsoVisitor<Integer>() {
+            @Override
+            public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                return overlay.visit(javaType, p);
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public <M extends Marker> M visitMarker(Marker marker, Integer p) {
+                if (marker instanceof JavaSourceSet) {
+                    JavaSourceSet sourceSet = (JavaSourceSet) marker;
+                    return (M) sourceSet.withClasspath(ListUtils.map(sourceSet.getClasspath(),
+                            c -> (JavaType.FullyQualified) overlay.visit(c, p)));
+                }
+                return super.visitMarker(marker, p);
+            }
+        }.visitNonNull(sourceFile, 0);
+    }
+}
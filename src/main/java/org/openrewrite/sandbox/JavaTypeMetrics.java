@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.function.Supplier;
+
+/**
+ * Meters for type deduplication, cloning and weighing, registered on {@link Metrics#globalRegistry} like
+ * the rest of rewrite's meters. Deduplication counts are accumulated per visitor and published once per
+ * source file, so the lookup path itself never touches a meter.
+ */
+final class JavaTypeMetrics {
+    private static final Counter PROVEN = lookups("proven");
+    private static final Counter PROPOSED = lookups("proposed");
+    private static final Counter VARIANT = lookups("variant");
+    private static final Counter CREATED = lookups("created");
+
+    private static final Counter VARIANTS_SCANNED = Counter
+            .builder("rewrite.types.dedup.variants.scanned")
+            .description("Canonical variants compared against a type that shares their fingerprint. Divided " +
+                    "by lookups, the average number of variants scanned per lookup.")
+            .register(Metrics.globalRegistry);
+
+    private static final DistributionSummary EQUALITY_DEPTH = DistributionSummary
+            .builder("rewrite.types.dedup.equality.depth")
+            .description("Deepest nesting of equality checks reached while deduplicating one source file.")
+            .register(Metrics.globalRegistry);
+
+    private static final DistributionSummary BYTES_SAVED = DistributionSummary
+            .builder("rewrite.types.dedup.bytes.saved")
+            .description("Retained size of a source file before deduplication less its size after.")
+            .baseUnit("bytes")
+            .register(Metrics.globalRegistry);
+
+    private static final Timer DEDUP = timer("rewrite.types.dedup", "Deduplicating the types of source files.");
+    private static final Timer CLONE = timer("rewrite.types.clone", "Cloning the types of a source file.");
+    private static final Timer WEIGH = timer("rewrite.types.weigh", "Weighing source files.");
+
+    private JavaTypeMetrics() {
+    }
+
+    /**
+     * Lookup outcomes counted by one deduplication visitor since they were last published.
+     */
+    static class DedupCounts {
+        long proven;
+        long proposed;
+        long variant;
+        long created;
+        long variantsScanned;
+        int maxEqualityDepth;
+
+        void publish() {
+            increment(PROVEN, proven);
+            increment(PROPOSED, proposed);
+            increment(VARIANT, variant);
+            increment(CREATED, created);
+            increment(VARIANTS_SCANNED, variantsScanned);
+            if (maxEqualityDepth > 0) {
+                EQUALITY_DEPTH.record(maxEqualityDepth);
+            }
+            proven = proposed = variant = created = variantsScanned = 0;
+            maxEqualityDepth = 0;
+        }
+
+        private static void increment(Counter counter, long amount) {
+            if (amount > 0) {
+                counter.increment(amount);
+            }
+        }
+    }
+
+    static void bytesSaved(long before, long after) {
+        BYTES_SAVED.record(before - after);
+    }
+
+    static <T> T dedup(Supplier<T> dedup) {
+        return DEDUP.record(dedup);
+    }
+
+    static <T> T cloneTypes(Supplier<T> clone) {
+        return CLONE.record(clone);
+    }
+
+    static <T> T weigh(Supplier<T> weigh) {
+        return WEIGH.record(weigh);
+    }
+
+    /**
+     * @return A timer for the time a pipeline stage spends working on items.
+     */
+    static Timer stageBusy(String stage) {
+        return Timer.builder("rewrite.types.pipeline.busy")
+                .description("Time a pipeline stage spends working on items.")
+                .tag("stage", stage)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * @return A timer for the time a pipeline stage spends blocked on a full queue to the next stage.
+     */
+    static Timer stageBlocked(String stage) {
+        return Timer.builder("rewrite.types.pipeline.blocked")
+                .description("Time a pipeline stage spends waiting for the next stage to make room.")
+                .tag("stage", stage)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Counter lookups(String result) {
+        return Counter.builder("rewrite.types.dedup.lookups")
+                .description("Types looked up by deduplication, by how their canonical type was found.")
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Timer timer(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .register(Metrics.globalRegistry);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A copy-on-write view of a type graph. Only the types that {@link #changes(JavaType) change}, and the types
+ * that reach one of them, are copied, and a copy's references to any other type are to the original.
+ * <p>
+ * That is only a saving over cloning the graph when few types reach a change. Members refer back to the class
+ * that declares them, so a class that changes takes all of its members and whatever refers to any of them
+ * along with it. Pruning the members of the JDK's classes, which nearly every type reaches, copies nearly the
+ * whole graph.
+ * <p>
+ * Before a type is first copied or shared, the part of the graph it reaches is explored to find out whether
+ * it reaches a type that changes. Types reached by earlier explorations are not explored again. Every explored
+ * type keeps an id and whether it is copied for as long as the overlay is used, like a cloner's memo of its
+ * clones, but the edges between types are only kept while one exploration runs.
+ */
+abstract class JavaTypeOverlay extends JavaTypeCloner {
+    private final JavaTypeIds explored = new JavaTypeIds();
+    private boolean[] copied = new boolean[32];
+
+    /**
+     * The id of the first type of the exploration that is running.
+     */
+    private int exploring;
+
+    /**
+     * For every type of the running exploration, by its id less {@link #exploring}, the most recent edge from a
+     * type that refers to it, and for every edge the type it comes from and the next edge to the same type.
+     */
+    private int[] lastEdgeTo = new int[32];
+    private int[] edgeFrom = new int[64];
+    private int[] nextEdge = new int[64];
+    private int edges;
+
+    /**
+     * @return Whether the type itself is different in the overlay. {@link #copy(JavaType)} makes the change.
+     */
+    abstract boolean changes(JavaType javaType);
+
+    @Override
+    public JavaType visit(@Nullable JavaType javaType, Integer p) {
+        if (javaType == null) {
+            //noinspection ConstantConditions
+            return null;
+        }
+        int id = explored.find(javaType);
+        if (id < 0) {
+            explore(javaType);
+            id = explored.find(javaType);
+        }
+        return copied[id] ? super.visit(javaType, p) : javaType;
+    }
+
+    /**
+     * Types explored before can't refer to types explored now, because everything they refer to was
+     * explored along with them. So only the types explored now can come to be copied, and only edges to them
+     * are ever followed.
+     */
+    private void explore(JavaType root) {
+        Deque<JavaType> stack = new ArrayDeque<>();
+        Deque<Integer> toCopy = new ArrayDeque<>();
+        exploring = explored.size();
+        edges = 0;
+        addType(root);
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            JavaType type = stack.pop();
+            int from = explored.find(type);
+            if (changes(type)) {
+                toCopy.push(from);
+            }
+            JavaTypeUtils.forEachReference(type, reference -> {
+                if (reference == null) {
+                    return;
+                }
+                int to = explored.find(reference);
+                if (to < 0) {
+                    to = addType(reference);
+                    stack.push(reference);
+                } else if (to < exploring) {
+                    if (copied[to]) {
+                        toCopy.push(from);
+                    }
+                    return;
+                }
+                addEdge(from, to);
+            });
+        }
+
+        // whatever refers to a copy has to be copied as well, to refer to the copy
+        while (!toCopy.isEmpty()) {
+            int id = toCopy.pop();
+            if (!copied[id]) {
+                copied[id] = true;
+                for (int e = lastEdgeTo[id - exploring]; e >= 0; e = nextEdge[e]) {
+                    if (!copied[edgeFrom[e]]) {
+                        toCopy.push(edgeFrom[e]);
+                    }
+                }
+            }
+        }
+    }
+
+    private int addType(JavaType type) {
+        int id = explored.idOf(type);
+        copied = JavaTypeIds.ensureCapacity(copied, id + 1);
+        lastEdgeTo = JavaTypeIds.ensureCapacity(lastEdgeTo, id - exploring + 1);
+        lastEdgeTo[id - exploring] = -1;
+        return id;
+    }
+
+    private void addEdge(int from, int to) {
+        if (edges == edgeFrom.length) {
+            edgeFrom = Arrays.copyOf(edgeFrom, edges * 2);
+            nextEdge = Arrays.copyOf(nextEdge, edges * 2);
+        }
+        edgeFrom[edges] = from;
+        nextEdge[edges] = lastEdgeTo[to - exploring];
+        lastEdgeTo[to - exploring] = edges++;
+    }
+}
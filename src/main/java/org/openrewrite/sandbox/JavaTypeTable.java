@@ -0,0 +1,944 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.SourceFile;
+import org.openrewrite.internal.ListUtils;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.marker.JavaSourceSet;
+import org.openrewrite.java.tree.JavaType;
+import org.openrewrite.marker.Marker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.IntFunction;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A binary table of the types of many source files, in which each type is written once and refers to
+ * other types by id. Source files refer into the table with one id per type they hold, in the order
+ * {@link JavaIsoVisitor#visitType(JavaType, Object)} reaches them, followed by their classpath.
+ * <p>
+ * The layout is a header (magic, version, string count, type count, total length), an offset for every
+ * string and every type record, UTF-8 strings, and then the type records. Reading works directly on the
+ * buffer, and a type is only built, along with what it references, the first time it is asked for. A table
+ * is not safe for use by multiple threads while it materializes types. A table that is truncated, or whose
+ * offsets point outside of it, is rejected when it is read, and one whose records are corrupt fails with
+ * {@link IllegalStateException} when they are read.
+ * <p>
+ * Written to a direct buffer or a memory-mapped file, and read {@link #read(ByteBuffer, boolean) softly}, the
+ * table keeps the type graph off the heap: built types are only held on to while something else holds them,
+ * and are built again from the table when they are asked for after being collected. {@link View Views} read
+ * a type's record without building it at all.
+ */
+public class JavaTypeTable {
+    private static final int MAGIC = 0x4a545442;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 20;
+
+    private static final byte CLASS = 1;
+    private static final byte SHALLOW_CLASS = 2;
+    private static final byte PARAMETERIZED = 3;
+    private static final byte ARRAY = 4;
+    private static final byte GENERIC_TYPE_VARIABLE = 5;
+    private static final byte METHOD = 6;
+    private static final byte VARIABLE = 7;
+    private static final byte MULTI_CATCH = 8;
+    private static final byte PRIMITIVE = 9;
+    private static final byte UNKNOWN = 10;
+
+    private static final int NONE = -1;
+
+    private final ByteBuffer buffer;
+    private final int stringOffsets;
+    private final int typeOffsets;
+    private final boolean softly;
+
+    /**
+     * Either the string or type itself, or a soft reference to it when the table is read softly.
+     */
+    private final Object[] strings;
+    private final Object[] types;
+
+    private JavaTypeTable(ByteBuffer buffer, int stringCount, int typeCount, boolean softly) {
+        this.buffer = buffer;
+        this.stringOffsets = HEADER_SIZE;
+        this.typeOffsets = HEADER_SIZE + stringCount * 4;
+        this.softly = softly;
+        this.strings = new Object[stringCount];
+        this.types = new Object[typeCount];
+    }
+
+    /**
+     * @param buffer A table from {@link Writer#write()}, which is read in place from its start and must not
+     *               change while the table is in use.
+     */
+    public static JavaTypeTable read(ByteBuffer buffer) {
+        return read(buffer, false);
+    }
+
+    /**
+     * @param softly Whether built types may be collected once nothing else holds them. A type that is built
+     *               again after being collected is a new instance, but never while the old one is reachable.
+     */
+    public static JavaTypeTable read(ByteBuffer buffer, boolean softly) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a type table of version " + VERSION);
+        }
+        int stringCount = buffer.getInt(8);
+        int typeCount = buffer.getInt(12);
+        int length = buffer.getInt(16);
+        long dataStart = HEADER_SIZE + 4L * stringCount + 4L * typeCount;
+        if (length > buffer.limit()) {
+            throw new IllegalArgumentException("The type table is truncated to " + buffer.limit() + " of " +
+                                               length + " bytes");
+        }
+        if (stringCount < 0 || typeCount < 0 || dataStart > length) {
+            throw new IllegalArgumentException("The type table header is corrupt");
+        }
+        for (int i = 0; i < stringCount + typeCount; i++) {
+            int offset = buffer.getInt(HEADER_SIZE + i * 4);
+            if (offset < dataStart || offset >= length) {
+                throw new IllegalArgumentException("The type table has an offset outside of it at " + i);
+            }
+        }
+        return new JavaTypeTable(buffer, stringCount, typeCount, softly);
+    }
+
+    /**
+     * Maps a table from {@link Writer#write(Path)} into memory, leaving its pages to the operating system.
+     */
+    public static JavaTypeTable map(Path path, boolean softly) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), softly);
+        }
+    }
+
+    public int size() {
+        return types.length;
+    }
+
+    @Nullable
+    public JavaType get(int id) {
+        if (id == NONE) {
+            return null;
+        }
+        JavaType type = cached(types, checkId(id));
+        return type == null ? materialize(id) : type;
+    }
+
+    /**
+     * @return A view of the type's record that reads from the table without building the type.
+     */
+    public View view(int id) {
+        return new View(id);
+    }
+
+    /**
+     * @return The source file with its types, and those of its classpath, replaced by the ones in this table.
+     */
+    public SourceFile attach(SourceFile sourceFile, int[] refs) {
+        int[] next = new int[1];
+        return (SourceFile) new JavaIsoVisitor<Integer>() {
+            @Override
+            public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                return get(refs[next[0]++]);
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public <M extends Marker> M visitMarker(Marker marker, Integer p) {
+                if (marker instanceof JavaSourceSet) {
+                    JavaSourceSet sourceSet = (JavaSourceSet) marker;
+                    return (M) sourceSet.withClasspath(ListUtils.map(sourceSet.getClasspath(),
+                            c -> (JavaType.FullyQualified) get(refs[next[0]++])));
+                }
+                return super.visitMarker(marker, p);
+            }
+        }.visitNonNull(sourceFile, 0);
+    }
+
+    /**
+     * Builds the type and everything it reaches that isn't built yet. Each type is built before what it
+     * references, so that references back to it resolve to it, and the references of built types are set
+     * from a work list rather than by recursion, so that deep type graphs can't overflow the stack.
+     */
+    private JavaType materialize(int id) {
+        try {
+            // holds on to what has been built until it is referenced, in case the table is read softly
+            Deque<JavaType> unlinked = new ArrayDeque<>();
+            IntList unlinkedIds = new IntList();
+            JavaType type = build(id, unlinked, unlinkedIds);
+            while (!unlinked.isEmpty()) {
+                link(unlinkedIds.pop(), unlinked.pop(), unlinked, unlinkedIds);
+            }
+            return type;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalStateException("The type table is corrupt at type " + id, e);
+        }
+    }
+
+    /**
+     * Builds the type without any references to other types, and queues it to be linked if it has any.
+     */
+    private JavaType build(int id, Deque<JavaType> unlinked, IntList unlinkedIds) {
+        int p = buffer.getInt(typeOffsets + id * 4);
+        byte kind = buffer.get(p++);
+        JavaType type;
+        switch (kind) {
+            case CLASS:
+            case SHALLOW_CLASS: {
+                long flags = buffer.getLong(p);
+                String fqn = string(buffer.getInt(p + 8));
+                JavaType.FullyQualified.Kind classKind = JavaType.FullyQualified.Kind.values()[buffer.get(p + 12)];
+                type = kind == CLASS ?
+                        new JavaType.Class(null, flags, fqn, classKind, null, null, null, null, null, null, null) :
+                        new JavaType.ShallowClass(null, flags, fqn, classKind, null, null, null, null, null, null, null);
+                break;
+            }
+            case PARAMETERIZED:
+                type = new JavaType.Parameterized(null, null, null);
+                break;
+            case ARRAY:
+                type = new JavaType.Array(null, null);
+                break;
+            case GENERIC_TYPE_VARIABLE: {
+                String name = string(buffer.getInt(p));
+                JavaType.GenericTypeVariable.Variance variance =
+                        JavaType.GenericTypeVariable.Variance.values()[buffer.get(p + 4)];
+                type = new JavaType.GenericTypeVariable(null, name, variance, null);
+                break;
+            }
+            case METHOD: {
+                long flags = buffer.getLong(p);
+                String name = string(buffer.getInt(p + 8));
+                int[] parameterNameIds = ids(p + 12);
+                List<String> parameterNames = null;
+                if (parameterNameIds != null) {
+                    parameterNames = new ArrayList<>(parameterNameIds.length);
+                    for (int parameterName : parameterNameIds) {
+                        parameterNames.add(string(parameterName));
+                    }
+                }
+                type = new JavaType.Method(null, flags, null, name, null, parameterNames, null, null, null);
+                break;
+            }
+            case VARIABLE: {
+                long flags = buffer.getLong(p);
+                String name = string(buffer.getInt(p + 8));
+                type = new JavaType.Variable(null, flags, name, null, null, null);
+                break;
+            }
+            case MULTI_CATCH:
+                type = new JavaType.MultiCatch(null);
+                break;
+            case PRIMITIVE:
+                return cache(types, id, JavaType.Primitive.values()[buffer.get(p)]);
+            case UNKNOWN:
+                return cache(types, id, JavaType.Unknown.getInstance());
+            default:
+                throw new IllegalStateException("Unknown type record kind " + kind + " for type " + id);
+        }
+        cache(types, id, type);
+        unlinked.push(type);
+        unlinkedIds.add(id);
+        return type;
+    }
+
+    /**
+     * Points a built type's references at the types they refer to, building those that aren't built yet.
+     */
+    private void link(int id, JavaType type, Deque<JavaType> unlinked, IntList unlinkedIds) {
+        int p = buffer.getInt(typeOffsets + id * 4) + 1;
+        if (type instanceof JavaType.Class) {
+            p += 13;
+            int[] typeParameters = ids(p);
+            p += length(typeParameters);
+            int supertype = buffer.getInt(p);
+            int owningClass = buffer.getInt(p + 4);
+            p += 8;
+            int[] annotations = ids(p);
+            p += length(annotations);
+            int[] interfaces = ids(p);
+            p += length(interfaces);
+            int[] members = ids(p);
+            p += length(members);
+            int[] methods = ids(p);
+            ((JavaType.Class) type).unsafeSet(list(typeParameters, unlinked, unlinkedIds),
+                    (JavaType.FullyQualified) resolve(supertype, unlinked, unlinkedIds),
+                    (JavaType.FullyQualified) resolve(owningClass, unlinked, unlinkedIds),
+                    list(annotations, unlinked, unlinkedIds), list(interfaces, unlinked, unlinkedIds),
+                    list(members, unlinked, unlinkedIds), list(methods, unlinked, unlinkedIds));
+        } else if (type instanceof JavaType.Parameterized) {
+            ((JavaType.Parameterized) type).unsafeSet(
+                    (JavaType.FullyQualified) resolve(buffer.getInt(p), unlinked, unlinkedIds),
+                    list(ids(p + 4), unlinked, unlinkedIds));
+        } else if (type instanceof JavaType.Array) {
+            ((JavaType.Array) type).unsafeSet(resolve(buffer.getInt(p), unlinked, unlinkedIds));
+        } else if (type instanceof JavaType.GenericTypeVariable) {
+            JavaType.GenericTypeVariable g = (JavaType.GenericTypeVariable) type;
+            g.unsafeSet(g.getVariance(), list(ids(p + 5), unlinked, unlinkedIds));
+        } else if (type instanceof JavaType.Method) {
+            p = skip(p + 12);
+            int declaringType = buffer.getInt(p);
+            int returnType = buffer.getInt(p + 4);
+            p += 8;
+            int[] parameterTypes = ids(p);
+            p += length(parameterTypes);
+            int[] thrownExceptions = ids(p);
+            p += length(thrownExceptions);
+            int[] annotations = ids(p);
+            ((JavaType.Method) type).unsafeSet(
+                    (JavaType.FullyQualified) resolve(declaringType, unlinked, unlinkedIds),
+                    resolve(returnType, unlinked, unlinkedIds), list(parameterTypes, unlinked, unlinkedIds),
+                    list(thrownExceptions, unlinked, unlinkedIds), list(annotations, unlinked, unlinkedIds));
+        } else if (type instanceof JavaType.Variable) {
+            ((JavaType.Variable) type).unsafeSet(resolve(buffer.getInt(p + 12), unlinked, unlinkedIds),
+                    resolve(buffer.getInt(p + 16), unlinked, unlinkedIds),
+                    list(ids(p + 20), unlinked, unlinkedIds));
+        } else if (type instanceof JavaType.MultiCatch) {
+            ((JavaType.MultiCatch) type).unsafeSet(list(ids(p), unlinked, unlinkedIds));
+        }
+    }
+
+    @Nullable
+    private JavaType resolve(int id, Deque<JavaType> unlinked, IntList unlinkedIds) {
+        if (id == NONE) {
+            return null;
+        }
+        JavaType type = cached(types, checkId(id));
+        return type == null ? build(id, unlinked, unlinkedIds) : type;
+    }
+
+    private int checkId(int id) {
+        if (id < 0 || id >= types.length) {
+            throw new IllegalStateException("The type table refers to type " + id + " of " + types.length);
+        }
+        return id;
+    }
+
+    private String string(int id) {
+        if (id < 0 || id >= strings.length) {
+            throw new IllegalStateException("The type table refers to string " + id + " of " + strings.length);
+        }
+        String s = cached(strings, id);
+        if (s == null) {
+            int p = buffer.getInt(stringOffsets + id * 4);
+            int length = buffer.getInt(p);
+            if (length < 0 || p + 4L + length > buffer.limit()) {
+                throw new IllegalStateException("The type table is corrupt at string " + id);
+            }
+            if (buffer.hasArray()) {
+                s = new String(buffer.array(), buffer.arrayOffset() + p + 4, length, StandardCharsets.UTF_8);
+            } else {
+                byte[] bytes = new byte[length];
+                ByteBuffer source = buffer.duplicate();
+                source.position(p + 4);
+                source.get(bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+            }
+            cache(strings, id, s);
+        }
+        return s;
+    }
+
+    /**
+     * Clears what is only softly held, as the garbage collector would once nothing else holds it, so that
+     * tests can see types built again.
+     */
+    void clearSoftReferences() {
+        for (Object[] cache : new Object[][]{strings, types}) {
+            for (Object o : cache) {
+                if (o instanceof SoftReference) {
+                    ((SoftReference<?>) o).clear();
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private static <T> T cached(Object[] cache, int id) {
+        Object o = cache[id];
+        return o instanceof SoftReference ? ((SoftReference<T>) o).get() : (T) o;
+    }
+
+    private <T> T cache(Object[] cache, int id, T value) {
+        cache[id] = softly ? new SoftReference<>(value) : value;
+        return value;
+    }
+
+    @Nullable
+    private int[] ids(int p) {
+        int count = buffer.getInt(p);
+        if (count == NONE) {
+            return null;
+        } else if (count < 0 || p + 4L + count * 4L > buffer.limit()) {
+            throw new IllegalStateException("The type table is corrupt at position " + p);
+        }
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = buffer.getInt(p + 4 + i * 4);
+        }
+        return ids;
+    }
+
+    private static int length(@Nullable int[] ids) {
+        return 4 + (ids == null ? 0 : ids.length * 4);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private <T extends JavaType> List<T> list(@Nullable int[] ids, Deque<JavaType> unlinked, IntList unlinkedIds) {
+        if (ids == null) {
+            return null;
+        }
+        List<T> list = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            list.add((T) resolve(id, unlinked, unlinkedIds));
+        }
+        return list;
+    }
+
+    public enum Kind {
+        CLASS, SHALLOW_CLASS, PARAMETERIZED, ARRAY, GENERIC_TYPE_VARIABLE, METHOD, VARIABLE, MULTI_CATCH,
+        PRIMITIVE, UNKNOWN
+    }
+
+    /**
+     * A flyweight over one type record. Getters mirror those of {@link JavaType} for the kinds of type that
+     * have them, refer to other types by their views, and throw {@link IllegalStateException} for kinds
+     * that do not.
+     */
+    public final class View {
+        private final int id;
+        private final byte kind;
+        private final int record;
+
+        private View(int id) {
+            this.id = id;
+            int p = buffer.getInt(typeOffsets + id * 4);
+            this.kind = buffer.get(p);
+            this.record = p + 1;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Kind getKind() {
+            return Kind.values()[kind - 1];
+        }
+
+        /**
+         * @return The type, built if it isn't already.
+         */
+        public JavaType materialize() {
+            return requireNonNull(get(id));
+        }
+
+        public long getFlagsBitMap() {
+            require(CLASS, SHALLOW_CLASS, METHOD, VARIABLE);
+            return buffer.getLong(record);
+        }
+
+        public String getFullyQualifiedName() {
+            if (kind == PARAMETERIZED) {
+                return requireNonNull(getType()).getFullyQualifiedName();
+            }
+            require(CLASS, SHALLOW_CLASS);
+            return string(buffer.getInt(record + 8));
+        }
+
+        public String getName() {
+            if (kind == CLASS || kind == SHALLOW_CLASS || kind == PARAMETERIZED) {
+                return getFullyQualifiedName();
+            }
+            require(GENERIC_TYPE_VARIABLE, METHOD, VARIABLE);
+            return string(buffer.getInt(kind == GENERIC_TYPE_VARIABLE ? record : record + 8));
+        }
+
+        public JavaType.FullyQualified.Kind getClassKind() {
+            require(CLASS, SHALLOW_CLASS);
+            return JavaType.FullyQualified.Kind.values()[buffer.get(record + 12)];
+        }
+
+        @Nullable
+        public List<View> getTypeParameters() {
+            require(CLASS, SHALLOW_CLASS, PARAMETERIZED);
+            return views(kind == PARAMETERIZED ? record + 4 : record + 13);
+        }
+
+        @Nullable
+        public View getSupertype() {
+            require(CLASS, SHALLOW_CLASS);
+            return viewAt(skip(record + 13));
+        }
+
+        @Nullable
+        public View getOwningClass() {
+            require(CLASS, SHALLOW_CLASS);
+            return viewAt(skip(record + 13) + 4);
+        }
+
+        @Nullable
+        public List<View> getAnnotations() {
+            require(CLASS, SHALLOW_CLASS, METHOD, VARIABLE);
+            if (kind == METHOD) {
+                return views(skip(skip(methodTypes() + 8)));
+            } else if (kind == VARIABLE) {
+                return views(record + 20);
+            }
+            return views(classLists());
+        }
+
+        @Nullable
+        public List<View> getInterfaces() {
+            require(CLASS, SHALLOW_CLASS);
+            return views(skip(classLists()));
+        }
+
+        @Nullable
+        public List<View> getMembers() {
+            require(CLASS, SHALLOW_CLASS);
+            return views(skip(skip(classLists())));
+        }
+
+        @Nullable
+        public List<View> getMethods() {
+            require(CLASS, SHALLOW_CLASS);
+            return views(skip(skip(skip(classLists()))));
+        }
+
+        /**
+         * @return The parameterized class, or the type of a variable.
+         */
+        @Nullable
+        public View getType() {
+            require(PARAMETERIZED, VARIABLE);
+            return viewAt(kind == PARAMETERIZED ? record : record + 16);
+        }
+
+        @Nullable
+        public View getElemType() {
+            require(ARRAY);
+            return viewAt(record);
+        }
+
+        public JavaType.GenericTypeVariable.Variance getVariance() {
+            require(GENERIC_TYPE_VARIABLE);
+            return JavaType.GenericTypeVariable.Variance.values()[buffer.get(record + 4)];
+        }
+
+        @Nullable
+        public List<View> getBounds() {
+            require(GENERIC_TYPE_VARIABLE);
+            return views(record + 5);
+        }
+
+        @Nullable
+        public View getDeclaringType() {
+            require(METHOD);
+            return viewAt(methodTypes());
+        }
+
+        @Nullable
+        public View getReturnType() {
+            require(METHOD);
+            return viewAt(methodTypes() + 4);
+        }
+
+        @Nullable
+        public List<String> getParameterNames() {
+            require(METHOD);
+            int count = buffer.getInt(record + 12);
+            if (count == NONE) {
+                return null;
+            }
+            List<String> parameterNames = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                parameterNames.add(string(buffer.getInt(record + 16 + i * 4)));
+            }
+            return parameterNames;
+        }
+
+        @Nullable
+        public List<View> getParameterTypes() {
+            require(METHOD);
+            return views(methodTypes() + 8);
+        }
+
+        @Nullable
+        public List<View> getThrownExceptions() {
+            require(METHOD);
+            return views(skip(methodTypes() + 8));
+        }
+
+        @Nullable
+        public View getOwner() {
+            require(VARIABLE);
+            return viewAt(record + 12);
+        }
+
+        @Nullable
+        public List<View> getThrowableTypes() {
+            require(MULTI_CATCH);
+            return views(record);
+        }
+
+        public JavaType.Primitive getPrimitive() {
+            require(PRIMITIVE);
+            return JavaType.Primitive.values()[buffer.get(record)];
+        }
+
+        /**
+         * @return The position of a class's annotations, which follow its type parameters, supertype and
+         * owning class.
+         */
+        private int classLists() {
+            return skip(record + 13) + 8;
+        }
+
+        /**
+         * @return The position of a method's declaring type, which follows its parameter names.
+         */
+        private int methodTypes() {
+            return skip(record + 12);
+        }
+
+        private void require(byte... kinds) {
+            for (byte k : kinds) {
+                if (k == kind) {
+                    return;
+                }
+            }
+            throw new IllegalStateException("A type of kind " + getKind() + " does not have this property");
+        }
+
+        @Override
+        public String toString() {
+            return getKind() + "#" + id;
+        }
+    }
+
+    private int skip(int p) {
+        int count = buffer.getInt(p);
+        return p + 4 + (count == NONE ? 0 : count * 4);
+    }
+
+    @Nullable
+    private View viewAt(int p) {
+        int id = buffer.getInt(p);
+        return id == NONE ? null : new View(id);
+    }
+
+    @Nullable
+    private List<View> views(int p) {
+        int count = buffer.getInt(p);
+        if (count == NONE) {
+            return null;
+        }
+        return new AbstractList<View>() {
+            @Override
+            public View get(int index) {
+                if (index < 0 || index >= count) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+                }
+                return new View(buffer.getInt(p + 4 + index * 4));
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Collects the types of source files into one table, writing each type once however many source files
+     * share it. Deduplicate the source files first for the table to be as small as their type graph.
+     */
+    public static class Writer {
+        private final JavaTypeIds ids = new JavaTypeIds();
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        /**
+         * @return The ids of the types the source file holds, to be given to {@link JavaTypeTable#attach(SourceFile, int[])}.
+         */
+        public int[] add(SourceFile sourceFile) {
+            IntList refs = new IntList();
+            new JavaIsoVisitor<Integer>() {
+                @Override
+                public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                    refs.add(javaType == null ? NONE : ids.idOf(javaType));
+                    return javaType;
+                }
+
+                @Override
+                public <M extends Marker> M visitMarker(Marker marker, Integer p) {
+                    if (marker instanceof JavaSourceSet) {
+                        for (JavaType.FullyQualified c : ((JavaSourceSet) marker).getClasspath()) {
+                            refs.add(c == null ? NONE : ids.idOf(c));
+                        }
+                    }
+                    return super.visitMarker(marker, p);
+                }
+            }.visit(sourceFile, 0);
+            return refs.toArray();
+        }
+
+        /**
+         * Adds a type that no source file holds, such as one from a classpath.
+         *
+         * @return The id of the type, to be given to {@link JavaTypeTable#get(int)}.
+         */
+        public int add(JavaType type) {
+            return ids.idOf(type);
+        }
+
+        public ByteBuffer write() {
+            return write(ByteBuffer::allocate);
+        }
+
+        /**
+         * @param allocate Allocates a buffer of the given size for the table, such as
+         *                 {@link ByteBuffer#allocateDirect(int)} to keep the table off the heap.
+         */
+        public ByteBuffer write(IntFunction<ByteBuffer> allocate) {
+            // writing a record assigns ids to the types it references, which are written in turn
+            Output records = new Output();
+            IntList recordOffsets = new IntList();
+            for (int id = 0; id < ids.size(); id++) {
+                recordOffsets.add(records.position());
+                writeRecord(ids.type(id), records);
+            }
+
+            Output stringData = new Output();
+            int[] stringOffsets = new int[strings.size()];
+            for (int i = 0; i < strings.size(); i++) {
+                stringOffsets[i] = stringData.position();
+                byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                stringData.putInt(bytes.length);
+                stringData.put(bytes);
+            }
+
+            int stringsStart = HEADER_SIZE + (strings.size() + recordOffsets.size()) * 4;
+            int recordsStart = stringsStart + stringData.position();
+            ByteBuffer table = allocate.apply(recordsStart + records.position());
+            table.putInt(MAGIC).putInt(VERSION).putInt(strings.size()).putInt(recordOffsets.size())
+                    .putInt(recordsStart + records.position());
+            for (int offset : stringOffsets) {
+                table.putInt(stringsStart + offset);
+            }
+            for (int i = 0; i < recordOffsets.size(); i++) {
+                table.putInt(recordsStart + recordOffsets.get(i));
+            }
+            table.put(stringData.bytes, 0, stringData.position());
+            table.put(records.bytes, 0, records.position());
+            table.flip();
+            return table;
+        }
+
+        /**
+         * Writes the table to a file, to be read with {@link JavaTypeTable#map(Path, boolean)}.
+         */
+        public void write(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                write(size -> {
+                    try {
+                        return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void writeRecord(JavaType type, Output out) {
+            if (type instanceof JavaType.Unknown) {
+                out.put(UNKNOWN);
+            } else if (type instanceof JavaType.Class) {
+                JavaType.Class c = (JavaType.Class) type;
+                out.put(type instanceof JavaType.ShallowClass ? SHALLOW_CLASS : CLASS);
+                out.putLong(c.getFlagsBitMap());
+                out.putInt(string(c.getFullyQualifiedName()));
+                out.put((byte) c.getKind().ordinal());
+                writeRefs(c.getTypeParameters(), out);
+                writeRef(c.getSupertype(), out);
+                writeRef(c.getOwningClass(), out);
+                writeRefs(c.getAnnotations(), out);
+                writeRefs(c.getInterfaces(), out);
+                writeRefs(c.getMembers(), out);
+                writeRefs(c.getMethods(), out);
+            } else if (type instanceof JavaType.Parameterized) {
+                JavaType.Parameterized p = (JavaType.Parameterized) type;
+                out.put(PARAMETERIZED);
+                writeRef(p.getType(), out);
+                writeRefs(p.getTypeParameters(), out);
+            } else if (type instanceof JavaType.Array) {
+                out.put(ARRAY);
+                writeRef(((JavaType.Array) type).getElemType(), out);
+            } else if (type instanceof JavaType.GenericTypeVariable) {
+                JavaType.GenericTypeVariable g = (JavaType.GenericTypeVariable) type;
+                out.put(GENERIC_TYPE_VARIABLE);
+                out.putInt(string(g.getName()));
+                out.put((byte) g.getVariance().ordinal());
+                writeRefs(g.getBounds(), out);
+            } else if (type instanceof JavaType.Method) {
+                JavaType.Method m = (JavaType.Method) type;
+                out.put(METHOD);
+                out.putLong(m.getFlagsBitMap());
+                out.putInt(string(m.getName()));
+                List<String> parameterNames = m.getParameterNames();
+                if (parameterNames == null) {
+                    out.putInt(NONE);
+                } else {
+                    out.putInt(parameterNames.size());
+                    for (String parameterName : parameterNames) {
+                        out.putInt(string(parameterName));
+                    }
+                }
+                writeRef(m.getDeclaringType(), out);
+                writeRef(m.getReturnType(), out);
+                writeRefs(m.getParameterTypes(), out);
+                writeRefs(m.getThrownExceptions(), out);
+                writeRefs(m.getAnnotations(), out);
+            } else if (type instanceof JavaType.Variable) {
+                JavaType.Variable v = (JavaType.Variable) type;
+                out.put(VARIABLE);
+                out.putLong(v.getFlagsBitMap());
+                out.putInt(string(v.getName()));
+                writeRef(v.getOwner(), out);
+                writeRef(v.getType(), out);
+                writeRefs(v.getAnnotations(), out);
+            } else if (type instanceof JavaType.MultiCatch) {
+                out.put(MULTI_CATCH);
+                writeRefs(((JavaType.MultiCatch) type).getThrowableTypes(), out);
+            } else if (type instanceof JavaType.Primitive) {
+                out.put(PRIMITIVE);
+                out.put((byte) ((JavaType.Primitive) type).ordinal());
+            } else {
+                throw new IllegalArgumentException("Cannot write a type of " + type.getClass());
+            }
+        }
+
+        private void writeRef(@Nullable JavaType type, Output out) {
+            out.putInt(type == null ? NONE : ids.idOf(type));
+        }
+
+        private void writeRefs(@Nullable List<? extends JavaType> types, Output out) {
+            if (types == null) {
+                out.putInt(NONE);
+                return;
+            }
+            out.putInt(types.size());
+            for (JavaType type : types) {
+                writeRef(type, out);
+            }
+        }
+
+        private int string(String s) {
+            Integer id = stringIds.get(s);
+            if (id == null) {
+                id = strings.size();
+                stringIds.put(s, id);
+                strings.add(s);
+            }
+            return id;
+        }
+    }
+
+    private static class Output {
+        byte[] bytes = new byte[1024];
+        private int position;
+
+        int position() {
+            return position;
+        }
+
+        void put(byte b) {
+            ensure(1);
+            bytes[position++] = b;
+        }
+
+        void put(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, position, b.length);
+            position += b.length;
+        }
+
+        void putInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[position++] = (byte) (v >>> shift);
+            }
+        }
+
+        void putLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[position++] = (byte) (v >>> shift);
+            }
+        }
+
+        private void ensure(int n) {
+            if (position + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + n));
+            }
+        }
+    }
+
+    private static class IntList {
+        private int[] values = new int[64];
+        private int size;
+
+        void add(int v) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = v;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int pop() {
+            return values[--size];
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -16,102 +16,226 @@
 package org.openrewrite.sandbox;
 
 import org.openrewrite.SourceFile;
+import org.openrewrite.internal.ListUtils;
 import org.openrewrite.internal.lang.Nullable;
 import org.openrewrite.java.JavaIsoVisitor;
-import org.openrewrite.java.JavaTypeVisitor;
 import org.openrewrite.java.UnsafeJavaTypeVisitor;
+import org.openrewrite.java.marker.JavaSourceSet;
 import org.openrewrite.java.tree.JavaType;
+import org.openrewrite.marker.Marker;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 class JavaTypeUtils {
     public static long weigh(SourceFile sourceFile) {
-        Set<Integer> ids = new HashSet<>();
-        return sourceFile.getWeight(id -> ids.add(System.identityHashCode(id)));
+        return weigh(sourceFile, new IdentitySet());
+    }
+
+    /**
+     * Objects already in {@code visited} are not counted again, so weighing many source files with one
+     * set counts what they share once.
+     */
+    public static long weigh(SourceFile sourceFile, IdentitySet visited) {
+        return JavaTypeMetrics.weigh(() -> sourceFile.getWeight(visited::add));
+    }
+
+    static long weigh(SourceFile sourceFile, ConcurrentIdentitySet visited) {
+        return JavaTypeMetrics.weigh(() -> sourceFile.getWeight(visited::add));
+    }
+
+    public static long weigh(Collection<? extends SourceFile> sourceFiles) {
+        IdentitySet visited = new IdentitySet(1 << 16);
+        long weight = 0;
+        for (SourceFile sourceFile : sourceFiles) {
+            weight += weigh(sourceFile, visited);
+        }
+        return weight;
+    }
+
+    /**
+     * Weighs source files in parallel on the pool, counting what they share once like
+     * {@link #weigh(Collection)} does, and to the same total. A compilation unit with more top-level class
+     * body statements than {@link JavaTypeWeighTask#STATEMENTS_PER_TASK} is weighed a batch of those
+     * statements per task.
+     */
+    public static long weigh(List<? extends SourceFile> sourceFiles, ForkJoinPool pool) {
+        return weigh(sourceFiles, new ConcurrentIdentitySet(), pool);
+    }
+
+    /**
+     * Objects already in {@code visited} are not counted again.
+     */
+    static long weigh(List<? extends SourceFile> sourceFiles, ConcurrentIdentitySet visited, ForkJoinPool pool) {
+        return JavaTypeMetrics.weigh(() -> pool.invoke(new JavaTypeWeighTask(sourceFiles, visited)));
     }
 
     public static SourceFile cloneTypes(SourceFile sourceFile) {
-        return cloneTypes(sourceFile, new IdentityHashMap<>());
+        return cloneTypes(sourceFile, new JavaTypeCloner());
     }
 
     public static SourceFile cloneTypes(SourceFile sourceFile, IdentityHashMap<JavaType, JavaType> clones) {
-        buildClones(sourceFile, clones);
-        return replaceWithClones(sourceFile, clones);
+        JavaTypeCloner cloner = new JavaTypeCloner(clones);
+        SourceFile cloned = cloneTypes(sourceFile, cloner);
+        cloner.forEachClone(clones::put);
+        return cloned;
+    }
+
+    static SourceFile cloneTypes(SourceFile sourceFile, JavaTypeCloner cloner) {
+        return JavaTypeMetrics.cloneTypes(() -> (SourceFile) new JavaIsoVisitor<Integer>() {
+            @Override
+            public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                return cloner.visit(javaType, p);
+            }
+        }.visitNonNull(sourceFile, 0));
     }
 
     public static SourceFile dedupTypes(SourceFile s) {
-        return (SourceFile) new JavaTypeDeduplicationVisitor(new JavaTypeVariants())
-                .visitNonNull(s, 0);
+        return dedupTypes(s, new JavaTypeVariants());
+    }
+
+    /**
+     * Deduplicates the types of the source file in place, so that they refer to canonical types. The source
+     * file must not share types with source files that other threads may be reading or deduplicating, as the
+     * source files of one parser do.
+     */
+    public static SourceFile dedupTypes(SourceFile s, JavaTypeVariants variants) {
+        return JavaTypeMetrics.dedup(() -> (SourceFile) new JavaTypeDeduplicationVisitor(variants)
+                .visitNonNull(s, 0));
+    }
+
+    public static List<SourceFile> dedupTypes(List<SourceFile> sourceFiles, JavaTypeVariants variants) {
+        return dedupTypes(sourceFiles, variants, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Deduplicates each source file on its own visitor, fanned out over the pool, against the shared variants.
+     * The source files of one parser share types, which deduplicating on many threads at once would rewrite
+     * from many threads at once, so each source file's types are cloned first and only the clones are
+     * rewritten. The source files given are left as they are.
+     */
+    public static List<SourceFile> dedupTypes(List<SourceFile> sourceFiles, JavaTypeVariants variants, ForkJoinPool pool) {
+        return JavaTypeMetrics.dedup(() -> pool.submit(() -> sourceFiles.parallelStream()
+                .map(s -> (SourceFile) new JavaTypeDeduplicationVisitor(variants).visitNonNull(cloneTypes(s), 0))
+                .collect(Collectors.toList())).join());
     }
 
-    private static void buildClones(SourceFile sourceFile, IdentityHashMap<JavaType, JavaType> cloned) {
-        new JavaIsoVisitor<Integer>() {
+    /**
+     * Canonicalizes the types of all source files together, including their classpaths, by partition
+     * refinement rather than by pairwise comparison against variants.
+     */
+    public static List<SourceFile> dedupTypesByBisimulation(List<SourceFile> sourceFiles) {
+        JavaTypeBisimulation bisimulation = new JavaTypeBisimulation();
+        for (SourceFile sourceFile : sourceFiles) {
+            new JavaIsoVisitor<Integer>() {
+                @Override
+                public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                    bisimulation.add(javaType);
+                    return javaType;
+                }
+
+                @Override
+                public <M extends Marker> M visitMarker(Marker marker, Integer p) {
+                    if (marker instanceof JavaSourceSet) {
+                        for (JavaType.FullyQualified fq : ((JavaSourceSet) marker).getClasspath()) {
+                            bisimulation.add(fq);
+                        }
+                    }
+                    return super.visitMarker(marker, p);
+                }
+            }.visit(sourceFile, 0);
+        }
+
+        bisimulation.canonicalize();
+
+        return ListUtils.map(sourceFiles, sourceFile -> (SourceFile) new JavaIsoVisitor<Integer>() {
             @Override
             public JavaType visitType(@Nullable JavaType javaType, Integer p) {
-                return new JavaTypeVisitor<Integer>() {
-                    @Override
-                    public JavaType visit(@Nullable JavaType javaType, Integer integer) {
-                        if (javaType == null) {
-                            //noinspection ConstantConditions
-                            return null;
-                        }
-                        JavaType clone = cloned.get(javaType);
-                        if (clone != null) {
-                            return clone;
-                        }
-                        clone = javaType;
-                        if (javaType instanceof JavaType.Array) {
-                            JavaType.Array t = (JavaType.Array) javaType;
-                            clone = new JavaType.Array(null, t.getElemType());
-                        } else if (javaType instanceof JavaType.Class) {
-                            JavaType.Class t = (JavaType.Class) javaType;
-                            clone = new JavaType.Class(null, t.getFlagsBitMap(), t.getFullyQualifiedName(),
-                                    t.getKind(), t.getTypeParameters(), t.getSupertype(), t.getOwningClass(), t.getAnnotations(),
-                                    t.getInterfaces(), t.getMembers(), t.getMethods());
-                        } else if (javaType instanceof JavaType.GenericTypeVariable) {
-                            JavaType.GenericTypeVariable t = (JavaType.GenericTypeVariable) javaType;
-                            clone = new JavaType.GenericTypeVariable(null, t.getName(), t.getVariance(), t.getBounds());
-                        } else if (javaType instanceof JavaType.Method) {
-                            JavaType.Method t = (JavaType.Method) javaType;
-                            clone = new JavaType.Method(null, t.getFlagsBitMap(), t.getDeclaringType(), t.getName(),
-                                    t.getReturnType(), t.getParameterNames(), t.getParameterTypes(), t.getThrownExceptions(),
-                                    t.getAnnotations());
-                        } else if (javaType instanceof JavaType.MultiCatch) {
-                            JavaType.MultiCatch t = (JavaType.MultiCatch) javaType;
-                            clone = new JavaType.MultiCatch(t.getThrowableTypes());
-                        } else if (javaType instanceof JavaType.Parameterized) {
-                            JavaType.Parameterized t = (JavaType.Parameterized) javaType;
-                            clone = new JavaType.Parameterized(null, t.getType(), t.getTypeParameters());
-                        } else if (javaType instanceof JavaType.Variable) {
-                            JavaType.Variable t = (JavaType.Variable) javaType;
-                            clone = new JavaType.Variable(null, t.getFlagsBitMap(), t.getName(),
-                                    t.getOwner(), t.getType(), t.getAnnotations());
-                        }
+                return javaType == null ? null : bisimulation.canonical(javaType);
+            }
 
-                        cloned.put(javaType, clone);
-                        return super.visit(javaType, p);
-                    }
-                }.visit(javaType, p);
+            @SuppressWarnings("unchecked")
+            @Override
+            public <M extends Marker> M visitMarker(Marker marker, Integer p) {
+                if (marker instanceof JavaSourceSet) {
+                    JavaSourceSet sourceSet = (JavaSourceSet) marker;
+                    return (M) sourceSet.withClasspath(ListUtils.map(sourceSet.getClasspath(),
+                            c -> (JavaType.FullyQualified) bisimulation.canonical(c)));
+                }
+                return super.visitMarker(marker, p);
             }
-        }.visit(sourceFile, 0);
+        }.visitNonNull(sourceFile, 0));
     }
 
     static SourceFile replaceWithClones(SourceFile sourceFile, Map<JavaType, JavaType> clones) {
-        final Set<JavaType> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        IdentitySet seen = new IdentitySet();
+        UnsafeJavaTypeVisitor<Integer> typeVisitor = new UnsafeJavaTypeVisitor<Integer>() {
+            @Override
+            public JavaType visit(@Nullable JavaType javaType, Integer p) {
+                if (javaType == null) {
+                    //noinspection ConstantConditions
+                    return null;
+                }
+                JavaType replace = clones.getOrDefault(javaType, javaType);
+                if (seen.add(replace)) {
+                    return super.visit(replace, p);
+                }
+                return replace;
+            }
+        };
         return (SourceFile) new JavaIsoVisitor<Integer>() {
             @Override
             public JavaType visitType(@Nullable JavaType javaType, Integer p) {
-                return new UnsafeJavaTypeVisitor<Integer>() {
-                    @Override
-                    public JavaType visit(@Nullable JavaType javaType, Integer p) {
-                        JavaType replace = clones.getOrDefault(javaType, javaType);
-                        if (seen.add(replace)) {
-                            return super.visit(replace, p);
-                        }
-                        return replace;
-                    }
-                }.visit(javaType, p);
+                return typeVisitor.visit(javaType, p);
             }
         }.visitNonNull(sourceFile, 0);
     }
+
+    /**
+     * Hands every type the given type references directly, or {@code null} where a reference is unset, to the action.
+     */
+    static void forEachReference(JavaType type, Consumer<JavaType> action) {
+        if (type instanceof JavaType.Class) {
+            JavaType.Class c = (JavaType.Class) type;
+            forEach(c.getTypeParameters(), action);
+            action.accept(c.getSupertype());
+            action.accept(c.getOwningClass());
+            forEach(c.getAnnotations(), action);
+            forEach(c.getInterfaces(), action);
+            forEach(c.getMembers(), action);
+            forEach(c.getMethods(), action);
+        } else if (type instanceof JavaType.Parameterized) {
+            JavaType.Parameterized p = (JavaType.Parameterized) type;
+            action.accept(p.getType());
+            forEach(p.getTypeParameters(), action);
+        } else if (type instanceof JavaType.Array) {
+            action.accept(((JavaType.Array) type).getElemType());
+        } else if (type instanceof JavaType.GenericTypeVariable) {
+            forEach(((JavaType.GenericTypeVariable) type).getBounds(), action);
+        } else if (type instanceof JavaType.Method) {
+            JavaType.Method m = (JavaType.Method) type;
+            action.accept(m.getDeclaringType());
+            action.accept(m.getReturnType());
+            forEach(m.getParameterTypes(), action);
+            forEach(m.getThrownExceptions(), action);
+            forEach(m.getAnnotations(), action);
+        } else if (type instanceof JavaType.Variable) {
+            JavaType.Variable v = (JavaType.Variable) type;
+            action.accept(v.getOwner());
+            action.accept(v.getType());
+            forEach(v.getAnnotations(), action);
+        } else if (type instanceof JavaType.MultiCatch) {
+            forEach(((JavaType.MultiCatch) type).getThrowableTypes(), action);
+        }
+    }
+
+    private static void forEach(@Nullable List<? extends JavaType> types, Consumer<JavaType> action) {
+        if (types != null) {
+            for (int i = 0; i < types.size(); i++) {
+                action.accept(types.get(i));
+            }
+        }
+    }
 }
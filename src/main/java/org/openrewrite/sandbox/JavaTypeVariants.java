@@ -15,28 +15,278 @@
  */
 package org.openrewrite.sandbox;
 
+import lombok.Value;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.marker.JavaSourceSet;
 import org.openrewrite.java.tree.JavaType;
 
-import java.util.Collections;
-import java.util.IdentityHashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 public class JavaTypeVariants {
-    private final Map<String, Set<? extends JavaType>> variants;
+    static final int MAXIMUM_CLASSPATHS = 256;
+
+    private final VariantsTable variants;
+
+    @Nullable
+    private final JavaTypeInternStore internStore;
+
+    private final ReferenceStrength referenceStrength;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * The canonical source sets handed out most recently, by source set id, each held only weakly so that it
+     * goes away with the last source file that carries it.
+     */
+    private final Map<UUID, SourceSetClasspath> classpaths =
+            new LinkedHashMap<UUID, SourceSetClasspath>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<UUID, SourceSetClasspath> eldest) {
+                    return size() > MAXIMUM_CLASSPATHS;
+                }
+            };
+
+    private final Object publication = new Object();
 
     public JavaTypeVariants() {
-        this(new ConcurrentHashMap<>());
+        this(new VariantsTable(), null, ReferenceStrength.STRONG);
     }
 
-    public JavaTypeVariants(Map<String, Set<? extends JavaType>> variants) {
+    public JavaTypeVariants(JavaTypeInternStore internStore) {
+        this(new VariantsTable(), internStore, ReferenceStrength.STRONG);
+    }
+
+    private JavaTypeVariants(VariantsTable variants, @Nullable JavaTypeInternStore internStore,
+                             ReferenceStrength referenceStrength) {
         this.variants = variants;
+        this.internStore = internStore;
+        this.referenceStrength = referenceStrength;
+    }
+
+    /**
+     * Variants for long-lived workers that reuse one cache across many repositories. At most
+     * {@code maximumSize} fingerprints are retained, evicting about the least recently used, and with weak or
+     * soft references the garbage collector may reclaim canonical types that no LST references anymore.
+     */
+    public static JavaTypeVariants bounded(int maximumSize, ReferenceStrength referenceStrength) {
+        return new JavaTypeVariants(new VariantsTable(maximumSize), null, referenceStrength);
+    }
+
+    @Nullable
+    public JavaTypeInternStore getInternStore() {
+        return internStore;
+    }
+
+    public <T extends JavaType> Variants<T> variantsOf(T t) {
+        return variantsOf(JavaTypeFingerprint.of(t));
     }
 
     @SuppressWarnings("unchecked")
-    public <T extends JavaType> Set<T> variantsOf(T t) {
-        return (Set<T>) variants.computeIfAbsent(t.toString(), it -> Collections.synchronizedSet(
-                Collections.newSetFromMap(new IdentityHashMap<>())));
+    public <T extends JavaType> Variants<T> variantsOf(long fingerprint) {
+        Variants<?> existing = variants.get(fingerprint);
+        if (existing != null) {
+            hits.increment();
+            return (Variants<T>) existing;
+        }
+        misses.increment();
+        return (Variants<T>) variants.computeIfAbsent(fingerprint, it -> new Variants<T>(referenceStrength));
+    }
+
+    /**
+     * Runs a publication while no other publication through this method is in progress. Deduplication re-checks
+     * and publishes each strongly connected component of new types this way, so that readers, who never lock,
+     * can only ever find complete components, and no two equivalent components are ever both published.
+     */
+    <R> R atomically(Supplier<R> publication) {
+        synchronized (this.publication) {
+            return publication.get();
+        }
+    }
+
+    /**
+     * Stops handing out a canonical type, for instance once no source file refers to it anymore. Safe while
+     * others deduplicate against these variants: the variant is emptied in place rather than removed, and the
+     * variants of its fingerprint stay, so that a publication that has checked some of them never misses one
+     * published after them. Only eviction from bounded variants drops them.
+     */
+    public void retire(JavaType canonical) {
+        Variants<?> existing = variants.get(JavaTypeFingerprint.of(canonical));
+        if (existing != null) {
+            existing.retire(canonical);
+        }
+    }
+
+    /**
+     * @return A source set whose classpath is deduplicated against these variants, shared by every source file
+     * that carries the same source set with the same classpath, as long as any of them is still in use.
+     */
+    JavaSourceSet canonicalize(JavaSourceSet sourceSet) {
+        synchronized (classpaths) {
+            SourceSetClasspath existing = classpaths.get(sourceSet.getId());
+            JavaSourceSet canonical = existing == null ? null : existing.canonicalFor(sourceSet);
+            if (canonical == null) {
+                canonical = sourceSet.withClasspath(new CanonicalClasspath(sourceSet.getClasspath(), this));
+                classpaths.put(sourceSet.getId(), new SourceSetClasspath(sourceSet.getClasspath(), canonical));
+            }
+            return canonical;
+        }
+    }
+
+    /**
+     * Deduplicates the entries not read yet of every canonical classpath still in use, so that none of them
+     * pins the classpath it was made from anymore. A classpath is otherwise pinned until all of its entries
+     * happen to have been read.
+     */
+    public void completeClasspaths() {
+        List<CanonicalClasspath> pinning = new ArrayList<>();
+        synchronized (classpaths) {
+            for (SourceSetClasspath classpath : classpaths.values()) {
+                JavaSourceSet canonical = classpath.canonical.get();
+                if (canonical != null) {
+                    pinning.add((CanonicalClasspath) canonical.getClasspath());
+                }
+            }
+        }
+        for (CanonicalClasspath classpath : pinning) {
+            classpath.complete();
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(hits.sum(), misses.sum(), variants.getEvictionCount(), variants.size());
+    }
+
+    @Value
+    public static class Stats {
+        long hitCount;
+        long missCount;
+        long evictionCount;
+        int size;
+    }
+
+    private static class SourceSetClasspath {
+        /**
+         * Only identifies the classpath. The canonical classpath pins it as long as it has entries left to
+         * read, see {@link CanonicalClasspath#complete()}.
+         */
+        final WeakReference<List<JavaType.FullyQualified>> original;
+
+        final WeakReference<JavaSourceSet> canonical;
+
+        SourceSetClasspath(List<JavaType.FullyQualified> original, JavaSourceSet canonical) {
+            this.original = new WeakReference<>(original);
+            this.canonical = new WeakReference<>(canonical);
+        }
+
+        @Nullable
+        JavaSourceSet canonicalFor(JavaSourceSet sourceSet) {
+            JavaSourceSet c = canonical.get();
+            return c != null && (sourceSet.getClasspath() == original.get() || sourceSet.getClasspath() == c.getClasspath()) ?
+                    c : null;
+        }
+    }
+
+    public enum ReferenceStrength {
+        STRONG,
+        SOFT,
+        WEAK
+    }
+
+    /**
+     * The canonical types sharing one fingerprint. Readers scan an immutable snapshot, and a new canonical
+     * type is published by compare-and-set against the snapshot it was checked against. When two threads
+     * race to publish equivalent types, the loser re-checks what was published in the meantime and adopts
+     * the winner, so every equivalence class ends up with exactly one canonical type. That only holds for
+     * a candidate whose references are all canonical already. Types that refer to each other in a cycle have
+     * to be published together, through {@link JavaTypeVariants#atomically(Supplier)}.
+     */
+    public static class Variants<T extends JavaType> {
+        private final ReferenceStrength referenceStrength;
+        private final AtomicReference<Object[]> variants;
+
+        public Variants() {
+            this(ReferenceStrength.STRONG);
+        }
+
+        public Variants(ReferenceStrength referenceStrength) {
+            this.referenceStrength = referenceStrength;
+            this.variants = new AtomicReference<>(referenceStrength == ReferenceStrength.STRONG ?
+                    new JavaType[0] : new Reference<?>[0]);
+        }
+
+        /**
+         * @return The published variants, where a variant that has been garbage collected or retired is
+         * {@code null}.
+         */
+        public JavaType[] snapshot() {
+            Object[] current = variants.get();
+            if (current instanceof JavaType[]) {
+                return (JavaType[]) current;
+            }
+            JavaType[] snapshot = new JavaType[current.length];
+            for (int i = 0; i < current.length; i++) {
+                snapshot[i] = current[i] == null ? null : (JavaType) ((Reference<?>) current[i]).get();
+            }
+            return snapshot;
+        }
+
+        /**
+         * @param candidate The type to publish if no equivalent variant has been published.
+         * @param checked   The length of the snapshot that the candidate was already compared against.
+         * @param isEqual   Tests a variant published since for equivalence with the candidate.
+         * @return The candidate, or the equivalent variant that won the race to be published.
+         */
+        @SuppressWarnings("unchecked")
+        public T publish(T candidate, int checked, Predicate<T> isEqual) {
+            while (true) {
+                Object[] current = variants.get();
+                for (int i = checked; i < current.length; i++) {
+                    T variant = (T) (current[i] instanceof Reference ? ((Reference<?>) current[i]).get() : current[i]);
+                    if (variant != null && isEqual.test(variant)) {
+                        return variant;
+                    }
+                }
+                checked = current.length;
+
+                Object[] next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = referenceStrength == ReferenceStrength.STRONG ? candidate :
+                        referenceStrength == ReferenceStrength.SOFT ? new SoftReference<>(candidate) :
+                                new WeakReference<>(candidate);
+                if (variants.compareAndSet(current, next)) {
+                    return candidate;
+                }
+            }
+        }
+
+        /**
+         * Empties the variant's slot. Publishing checks variants from the length of the snapshot a candidate
+         * was compared against, so slots are never removed or reused, and retiring can race with publishing.
+         */
+        void retire(JavaType variant) {
+            while (true) {
+                Object[] current = variants.get();
+                int i = 0;
+                while (i < current.length && (current[i] instanceof Reference ?
+                        ((Reference<?>) current[i]).get() : current[i]) != variant) {
+                    i++;
+                }
+                if (i == current.length) {
+                    return;
+                }
+                Object[] next = Arrays.copyOf(current, current.length);
+                next[i] = null;
+                if (variants.compareAndSet(current, next)) {
+                    return;
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.Tree;
+import org.openrewrite.java.tree.J;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Weighs source files by splitting them in halves until each task holds a single source file. A compilation
+ * unit with more top-level class body statements than {@link #STATEMENTS_PER_TASK} is split further, into a
+ * hollow copy holding everything but those statements, and the statements themselves, which are weighed in
+ * tasks of at most that many. All tasks share one visited set, so whatever they share is counted once no
+ * matter which task reaches it first.
+ * <p>
+ * A tree weighs what its nodes and the types they reach weigh, and the hollow copy has the same nodes as the
+ * compilation unit apart from the statements, so a split file weighs exactly what it does weighed whole.
+ */
+final class JavaTypeWeighTask extends RecursiveTask<Long> {
+    static final int STATEMENTS_PER_TASK = 256;
+
+    private final List<? extends Tree> trees;
+    private final ConcurrentIdentitySet visited;
+    private final boolean split;
+
+    JavaTypeWeighTask(List<? extends Tree> sourceFiles, ConcurrentIdentitySet visited) {
+        this(sourceFiles, visited, true);
+    }
+
+    private JavaTypeWeighTask(List<? extends Tree> trees, ConcurrentIdentitySet visited, boolean split) {
+        this.trees = trees;
+        this.visited = visited;
+        this.split = split;
+    }
+
+    @Override
+    protected Long compute() {
+        if (trees.isEmpty()) {
+            return 0L;
+        } else if (!split && trees.size() <= STATEMENTS_PER_TASK) {
+            long weight = 0;
+            for (Tree tree : trees) {
+                weight += tree.getWeight(visited::add);
+            }
+            return weight;
+        } else if (trees.size() > 1) {
+            int mid = trees.size() >>> 1;
+            JavaTypeWeighTask left = new JavaTypeWeighTask(trees.subList(0, mid), visited, split);
+            left.fork();
+            long right = new JavaTypeWeighTask(trees.subList(mid, trees.size()), visited, split).compute();
+            return right + left.join();
+        }
+
+        Tree tree = trees.get(0);
+        if (tree instanceof J.CompilationUnit) {
+            List<J> parts = split((J.CompilationUnit) tree);
+            if (parts.size() > 1) {
+                return new JavaTypeWeighTask(parts, visited, false).compute();
+            }
+        }
+        return tree.getWeight(visited::add);
+    }
+
+    /**
+     * @return The hollow compilation unit followed by its top-level class body statements, or just the
+     * compilation unit itself when it is too small to be worth splitting.
+     */
+    static List<J> split(J.CompilationUnit cu) {
+        int statements = 0;
+        for (J.ClassDeclaration c : cu.getClasses()) {
+            statements += c.getBody().getStatements().size();
+        }
+        if (statements <= STATEMENTS_PER_TASK) {
+            return Collections.singletonList(cu);
+        }
+
+        List<J> parts = new ArrayList<>(statements + 1);
+        List<J.ClassDeclaration> hollowClasses = new ArrayList<>(cu.getClasses().size());
+        parts.add(cu);
+        for (J.ClassDeclaration c : cu.getClasses()) {
+            hollowClasses.add(c.withBody(c.getBody().withStatements(Collections.emptyList())));
+            parts.addAll(c.getBody().getStatements());
+        }
+        parts.set(0, cu.withClasses(hollowClasses));
+        return parts;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.marker.JavaSourceSet;
+import org.openrewrite.java.tree.JavaType;
+import org.openrewrite.marker.Marker;
+import org.openrewrite.sandbox.table.TypeWeightReport;
+
+import java.util.*;
+
+/**
+ * Attributes the estimated size of every type reachable from source files, including their classpath, to
+ * the fully qualified name it belongs to and to its kind, and tells apart weight reachable from more than
+ * one source file. Source files are expected to be deduplicated against {@link #getVariants()} first, so
+ * that what they share is the same canonical instance. Sizes are shallow estimates in bytes assuming
+ * compressed references, with each string counted once.
+ */
+class JavaTypeWeights {
+    private final JavaTypeVariants variants = new JavaTypeVariants();
+    private final JavaTypeIds ids = new JavaTypeIds();
+    private int[] firstSourceFile = new int[256];
+    private boolean[] shared = new boolean[256];
+    /**
+     * The id of a type that was found to refer to each type, or -1 for a type only held by source files.
+     */
+    private int[] referrer = new int[256];
+    private int sourceFiles;
+
+    JavaTypeVariants getVariants() {
+        return variants;
+    }
+
+    /**
+     * Walks only what the source file reaches that is not already known to be shared: whatever a shared
+     * type references is reachable from the same source files, so it is marked shared along with it.
+     */
+    void add(SourceFile sourceFile) {
+        int sourceFileIndex = sourceFiles++;
+        ReferenceStack stack = new ReferenceStack();
+        new JavaIsoVisitor<Integer>() {
+            @Override
+            public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                if (javaType != null) {
+                    stack.push(javaType, -1);
+                }
+                return javaType;
+            }
+
+            @Override
+            public <M extends Marker> M visitMarker(Marker marker, Integer p) {
+                if (marker instanceof JavaSourceSet) {
+                    for (JavaType.FullyQualified c : ((JavaSourceSet) marker).getClasspath()) {
+                        stack.push(c, -1);
+                    }
+                }
+                return super.visitMarker(marker, p);
+            }
+        }.visit(sourceFile, 0);
+
+        while (stack.size > 0) {
+            int top = --stack.size;
+            JavaType type = stack.types[top];
+            int referredFrom = stack.referrers[top];
+            stack.types[top] = null;
+            int known = ids.size();
+            int id = ids.idOf(type);
+            if (id == known) {
+                firstSourceFile = JavaTypeIds.ensureCapacity(firstSourceFile, id + 1);
+                shared = JavaTypeIds.ensureCapacity(shared, id + 1);
+                referrer = JavaTypeIds.ensureCapacity(referrer, id + 1);
+                firstSourceFile[id] = sourceFileIndex;
+                referrer[id] = referredFrom;
+            } else {
+                if (referrer[id] == -1) {
+                    referrer[id] = referredFrom;
+                }
+                if (shared[id] || firstSourceFile[id] == sourceFileIndex) {
+                    continue;
+                }
+                shared[id] = true;
+            }
+            JavaTypeUtils.forEachReference(type, reference -> {
+                if (reference != null) {
+                    stack.push(reference, id);
+                }
+            });
+        }
+    }
+
+
+    void report(TypeWeightReport report, ExecutionContext ctx, int topTypes) {
+        IdentitySet strings = new IdentitySet();
+        Map<String, Map<String, long[]>> byType = new HashMap<>();
+        Map<String, long[]> byKind = new TreeMap<>();
+        for (int id = 0; id < ids.size(); id++) {
+            JavaType type = ids.type(id);
+            long weight = weigh(type, strings);
+            String kind = type.getClass().getSimpleName();
+            accumulate(byType.computeIfAbsent(belongsTo(id), t -> new TreeMap<>())
+                    .computeIfAbsent(kind, k -> new long[3]), weight, shared[id]);
+            accumulate(byKind.computeIfAbsent(kind, k -> new long[3]), weight, shared[id]);
+        }
+
+        List<Map.Entry<String, Map<String, long[]>>> heaviest = new ArrayList<>(byType.entrySet());
+        heaviest.sort(Comparator.comparingLong((Map.Entry<String, Map<String, long[]>> e) -> total(e.getValue()))
+                .reversed());
+        for (Map.Entry<String, Map<String, long[]>> type : heaviest.subList(0, Math.min(topTypes, heaviest.size()))) {
+            for (Map.Entry<String, long[]> kind : type.getValue().entrySet()) {
+                insertRow(report, ctx, type.getKey(), kind.getKey(), kind.getValue());
+            }
+        }
+        for (Map.Entry<String, long[]> kind : byKind.entrySet()) {
+            insertRow(report, ctx, "*", kind.getKey(), kind.getValue());
+        }
+    }
+
+    private static void insertRow(TypeWeightReport report, ExecutionContext ctx, String type, String kind, long[] weights) {
+        report.insertRow(ctx, new TypeWeightReport.Row(type, kind, (int) weights[0], weights[1] + weights[2],
+                weights[1], weights[2]));
+    }
+
+    /**
+     * Accumulates the count, shared weight and unique weight.
+     */
+    private static void accumulate(long[] weights, long weight, boolean isShared) {
+        weights[0]++;
+        weights[isShared ? 1 : 2] += weight;
+    }
+
+    private static long total(Map<String, long[]> byKind) {
+        long total = 0;
+        for (long[] weights : byKind.values()) {
+            total += weights[1] + weights[2];
+        }
+        return total;
+    }
+
+    /**
+     * Generic type variables are named alike by unrelated classes and methods, so one belongs to the class or
+     * member that declares or uses it, found by climbing what first referred to it through type arguments,
+     * arrays and bounds, rather than to its name.
+     */
+    private String belongsTo(int id) {
+        JavaType type = ids.type(id);
+        if (!(type instanceof JavaType.GenericTypeVariable)) {
+            return belongsTo(type);
+        }
+        int context = id;
+        for (int steps = 0; steps < ids.size() && isPartOfSignature(ids.type(context)) &&
+                            referrer[context] != -1; steps++) {
+            context = referrer[context];
+        }
+        JavaType owner = ids.type(context);
+        return isPartOfSignature(owner) ? belongsTo(type) : belongsTo(owner);
+    }
+
+    private static boolean isPartOfSignature(JavaType type) {
+        return type instanceof JavaType.GenericTypeVariable || type instanceof JavaType.Parameterized ||
+               type instanceof JavaType.Array || type instanceof JavaType.MultiCatch;
+    }
+
+    /**
+     * @return The fully qualified name of the type, or of the type a member, array or parameterization
+     * belongs to.
+     */
+    static String belongsTo(@Nullable JavaType type) {
+        if (type instanceof JavaType.FullyQualified) {
+            return ((JavaType.FullyQualified) type).getFullyQualifiedName();
+        } else if (type instanceof JavaType.Method) {
+            return belongsTo(((JavaType.Method) type).getDeclaringType());
+        } else if (type instanceof JavaType.Variable) {
+            return belongsTo(((JavaType.Variable) type).getOwner());
+        } else if (type instanceof JavaType.Array) {
+            return belongsTo(((JavaType.Array) type).getElemType()) + "[]";
+        } else if (type instanceof JavaType.GenericTypeVariable) {
+            return ((JavaType.GenericTypeVariable) type).getName();
+        } else if (type instanceof JavaType.Primitive) {
+            return ((JavaType.Primitive) type).getKeyword();
+        }
+        return type == null ? "null" : type.getClass().getSimpleName();
+    }
+
+    static long weigh(JavaType type, IdentitySet strings) {
+        if (type instanceof JavaType.Class) {
+            JavaType.Class c = (JavaType.Class) type;
+            return 64 + array(c.getTypeParameters()) + array(c.getAnnotations()) + array(c.getInterfaces()) +
+                   array(c.getMembers()) + array(c.getMethods()) + string(c.getFullyQualifiedName(), strings);
+        } else if (type instanceof JavaType.Parameterized) {
+            return 24 + array(((JavaType.Parameterized) type).getTypeParameters());
+        } else if (type instanceof JavaType.Array) {
+            return 16;
+        } else if (type instanceof JavaType.GenericTypeVariable) {
+            JavaType.GenericTypeVariable g = (JavaType.GenericTypeVariable) type;
+            return 24 + array(g.getBounds()) + string(g.getName(), strings);
+        } else if (type instanceof JavaType.Method) {
+            JavaType.Method m = (JavaType.Method) type;
+            long weight = 56 + array(m.getParameterTypes()) + array(m.getThrownExceptions()) +
+                          array(m.getAnnotations()) + string(m.getName(), strings);
+            List<String> parameterNames = m.getParameterNames();
+            if (parameterNames != null) {
+                weight += array(parameterNames);
+                for (String parameterName : parameterNames) {
+                    weight += string(parameterName, strings);
+                }
+            }
+            return weight;
+        } else if (type instanceof JavaType.Variable) {
+            JavaType.Variable v = (JavaType.Variable) type;
+            return 40 + array(v.getAnnotations()) + string(v.getName(), strings);
+        } else if (type instanceof JavaType.MultiCatch) {
+            return 16 + array(((JavaType.MultiCatch) type).getThrowableTypes());
+        }
+        // primitives and the unknown type are singletons
+        return 0;
+    }
+
+    private static long array(@Nullable List<?> elements) {
+        return elements == null || elements.isEmpty() ? 0 : align(16 + 4L * elements.size());
+    }
+
+    private static long string(String s, IdentitySet strings) {
+        return strings.add(s) ? 24 + align(16 + s.length()) : 0;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Types yet to be walked, each with the id of the type that referred to it.
+     */
+    private static class ReferenceStack {
+        JavaType[] types = new JavaType[64];
+        int[] referrers = new int[64];
+        int size;
+
+        void push(JavaType type, int referrer) {
+            types = JavaTypeIds.ensureCapacity(types, size + 1);
+            referrers = JavaTypeIds.ensureCapacity(referrers, size + 1);
+            types[size] = type;
+            referrers[size++] = referrer;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.java.JavaVisitor;
+import org.openrewrite.java.tree.J;
+
+/**
+ * Runs many method migrations in a single traversal. Each invocation is handed, in the order they were
+ * added, to the rewrites whose patterns it matches according to a {@link MethodMatcherIndex}, so the cost
+ * of an invocation depends on how many patterns name its method rather than on how many there are.
+ */
+public class MethodInvocationDispatcher<P> extends JavaVisitor<P> {
+    private final MethodMatcherIndex<MethodInvocationRewrite<P>> rewrites;
+
+    public MethodInvocationDispatcher(MethodMatcherIndex<MethodInvocationRewrite<P>> rewrites) {
+        this.rewrites = rewrites;
+    }
+
+    @Override
+    public J visitMethodInvocation(J.MethodInvocation method, P p) {
+        J j = super.visitMethodInvocation(method, p);
+        if (!(j instanceof J.MethodInvocation)) {
+            return j;
+        }
+        J.MethodInvocation m = (J.MethodInvocation) j;
+        for (MethodInvocationRewrite<P> rewrite : rewrites.matches(m)) {
+            // later rewrites were matched against this invocation, so they get the rewritten one next cycle
+            j = rewrite.visitMethodInvocation(m, this, p);
+            if (j != m) {
+                return j;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * A rewrite of invocations matching the pattern it was added to the index with.
+     */
+    public interface MethodInvocationRewrite<P> {
+        /**
+         * @param visitor The dispatching visitor, for its cursor and to schedule import changes.
+         */
+        J visitMethodInvocation(J.MethodInvocation method, JavaVisitor<P> visitor, P p);
+    }
+}
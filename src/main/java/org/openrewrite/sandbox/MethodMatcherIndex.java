@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.MethodMatcher;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.*;
+
+/**
+ * Indexes many method patterns by the declaring type and method name they name, so that finding the patterns
+ * an invocation matches only tests the matchers filed under its own type and name, however many patterns
+ * there are. Patterns whose type or name contains a wildcard, and patterns that also match overrides, are
+ * filed under their name or, failing that, tested against every invocation.
+ */
+public class MethodMatcherIndex<T> {
+    private final Map<String, Map<String, List<Entry<T>>>> byTypeAndName = new HashMap<>();
+    private final Map<String, List<Entry<T>>> byName = new HashMap<>();
+    private final List<Entry<T>> unindexed = new ArrayList<>();
+    private int size;
+
+    public MethodMatcherIndex<T> add(String methodPattern, T value) {
+        return add(methodPattern, false, value);
+    }
+
+    /**
+     * @param methodPattern  A pattern as given to {@link MethodMatcher#MethodMatcher(String, boolean)}.
+     * @param matchOverrides Whether the pattern also matches overrides in subtypes of the type it names.
+     */
+    public MethodMatcherIndex<T> add(String methodPattern, boolean matchOverrides, T value) {
+        Entry<T> entry = new Entry<>(size++, new MethodMatcher(methodPattern, matchOverrides), value);
+
+        String[] typeAndName = typeAndName(methodPattern);
+        if (typeAndName == null) {
+            unindexed.add(entry);
+            return this;
+        }
+        String type = typeAndName[0];
+        String name = typeAndName[1];
+
+        if (isWildcard(name)) {
+            unindexed.add(entry);
+        } else if (matchOverrides || isWildcard(type)) {
+            byName.computeIfAbsent(name, n -> new ArrayList<>(1)).add(entry);
+        } else {
+            byTypeAndName.computeIfAbsent(type, t -> new HashMap<>())
+                    .computeIfAbsent(name, n -> new ArrayList<>(1)).add(entry);
+        }
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The values of the patterns the invocation matches, in the order they were added.
+     */
+    public List<T> matches(J.MethodInvocation method) {
+        JavaType.Method type = method.getMethodType();
+        if (type == null || type.getDeclaringType() == null) {
+            return Collections.emptyList();
+        }
+
+        List<Entry<T>> exact = null;
+        Map<String, List<Entry<T>>> byNameOfType = byTypeAndName.get(fullyQualifiedName(type.getDeclaringType()));
+        if (byNameOfType != null) {
+            exact = byNameOfType.get(type.getName());
+        }
+        List<Entry<T>> named = byName.get(type.getName());
+        if (exact == null && named == null && unindexed.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Entry<T>> matched = new ArrayList<>(1);
+        addMatches(exact, type, matched);
+        addMatches(named, type, matched);
+        addMatches(unindexed, type, matched);
+        if (matched.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // restore the order patterns were added in across the three kinds of candidates
+        matched.sort(Comparator.comparingInt(e -> e.order));
+        List<T> values = new ArrayList<>(matched.size());
+        for (Entry<T> entry : matched) {
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    private static <T> void addMatches(@Nullable List<Entry<T>> candidates, JavaType.Method type, List<Entry<T>> matched) {
+        if (candidates != null) {
+            for (Entry<T> candidate : candidates) {
+                if (candidate.matcher.matches(type)) {
+                    matched.add(candidate);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The declaring type pattern, with inner classes separated by dots, and the method name pattern,
+     * or {@code null} if the method pattern cannot be split into them.
+     */
+    @Nullable
+    static String[] typeAndName(String methodPattern) {
+        String pattern = methodPattern.trim();
+        int space = pattern.indexOf(' ');
+        int paren = pattern.indexOf('(', space + 1);
+        if (space < 0 || paren < 0) {
+            return null;
+        }
+        return new String[]{pattern.substring(0, space).replace('$', '.'), pattern.substring(space + 1, paren).trim()};
+    }
+
+    private static String fullyQualifiedName(JavaType.FullyQualified type) {
+        String fqn = type.getFullyQualifiedName();
+        return fqn.indexOf('$') < 0 ? fqn : fqn.replace('$', '.');
+    }
+
+    static boolean isWildcard(String pattern) {
+        return pattern.indexOf('*') >= 0 || pattern.contains("..");
+    }
+
+    private static class Entry<T> {
+        final int order;
+        final MethodMatcher matcher;
+        final T value;
+
+        Entry(int order, MethodMatcher matcher, T value) {
+            this.order = order;
+            this.matcher = matcher;
+            this.value = value;
+        }
+    }
+}
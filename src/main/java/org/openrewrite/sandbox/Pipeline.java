@@ -0,0 +1,199 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import io.micrometer.core.instrument.Timer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Hands items from stage to stage over bounded queues, so that different items can be in different stages
+ * at once and throughput is set by the slowest stage rather than by the sum of all of them. A stage that
+ * gets ahead blocks once its queue to the next stage is full, which keeps at most a few items per stage in
+ * memory. Stages with more than one thread do not keep items in order.
+ * <p>
+ * The time each stage spends working and the time it spends blocked on the next stage are recorded by
+ * {@link JavaTypeMetrics#stageBusy(String)} and {@link JavaTypeMetrics#stageBlocked(String)}.
+ */
+final class Pipeline<T> {
+    private static final Object END = new Object();
+
+    private final Iterable<?> source;
+    private final int capacity;
+    private final List<Stage> stages;
+
+    private Pipeline(Iterable<?> source, int capacity, List<Stage> stages) {
+        this.source = source;
+        this.capacity = capacity;
+        this.stages = stages;
+    }
+
+    /**
+     * @param capacity The number of items that can wait between two stages.
+     */
+    static <T> Pipeline<T> from(Iterable<? extends T> source, int capacity) {
+        return new Pipeline<>(source, capacity, new ArrayList<>());
+    }
+
+    <R> Pipeline<R> stage(String name, int threads, Function<? super T, ? extends R> work) {
+        List<Stage> next = new ArrayList<>(stages);
+        //noinspection unchecked
+        next.add(new Stage(name, threads, (Function<Object, Object>) work));
+        return new Pipeline<>(source, capacity, next);
+    }
+
+    /**
+     * Runs every stage and hands what the last one produces to the sink on the calling thread. The first
+     * failure of any stage or of the sink, whether or not it is a checked exception thrown without being
+     * declared, stops every stage from taking on new work and is rethrown here, wrapped in an
+     * {@link IllegalStateException} if it is checked.
+     */
+    void forEach(Consumer<? super T> sink) {
+        int threads = 1;
+        for (Stage stage : stages) {
+            threads += stage.threads;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "type-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            BlockingQueue<Object> first = new ArrayBlockingQueue<>(capacity);
+            executor.execute(() -> feed(first, failure));
+            BlockingQueue<Object> in = first;
+            for (Stage stage : stages) {
+                BlockingQueue<Object> out = new ArrayBlockingQueue<>(capacity);
+                stage.start(executor, in, out, failure);
+                in = out;
+            }
+
+            Object item;
+            while ((item = in.take()) != END) {
+                if (failure.get() == null) {
+                    //noinspection unchecked
+                    sink.accept((T) item);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private void feed(BlockingQueue<Object> out, AtomicReference<Throwable> failure) {
+        try {
+            Iterator<?> items = source.iterator();
+            while (failure.get() == null && items.hasNext()) {
+                out.put(items.next());
+            }
+            out.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+            putQuietly(out, END);
+        }
+    }
+
+    private static void putQuietly(BlockingQueue<Object> queue, Object item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Stage {
+        final int threads;
+        final Function<Object, Object> work;
+        final Timer busy;
+        final Timer blocked;
+
+        Stage(String name, int threads, Function<Object, Object> work) {
+            this.threads = Math.max(threads, 1);
+            this.work = work;
+            this.busy = JavaTypeMetrics.stageBusy(name);
+            this.blocked = JavaTypeMetrics.stageBlocked(name);
+        }
+
+        void start(Executor executor, BlockingQueue<Object> in, BlockingQueue<Object> out,
+                   AtomicReference<Throwable> failure) {
+            AtomicInteger running = new AtomicInteger(threads);
+            for (int i = 0; i < threads; i++) {
+                executor.execute(() -> run(in, out, failure, running));
+            }
+        }
+
+        /**
+         * Once a failure is recorded, items are still taken off the queue but dropped, so that every stage
+         * drains and the end of the input reaches the sink. Anything the work throws is a failure, including
+         * checked exceptions thrown without being declared, which would otherwise end the thread before it
+         * forwards the end of the input and leave the sink waiting for it forever.
+         */
+        private void run(BlockingQueue<Object> in, BlockingQueue<Object> out, AtomicReference<Throwable> failure,
+                         AtomicInteger running) {
+            try {
+                Object item;
+                while ((item = in.take()) != END) {
+                    if (failure.get() != null) {
+                        continue;
+                    }
+                    try {
+                        long start = System.nanoTime();
+                        Object result = work.apply(item);
+                        long worked = System.nanoTime();
+                        busy.record(worked - start, TimeUnit.NANOSECONDS);
+                        out.put(result);
+                        blocked.record(System.nanoTime() - worked, TimeUnit.NANOSECONDS);
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+                // the other threads of this stage also need to see the end of the input
+                in.put(END);
+                if (running.decrementAndGet() == 0) {
+                    out.put(END);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
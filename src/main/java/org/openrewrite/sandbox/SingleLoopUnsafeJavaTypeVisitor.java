@@ -19,12 +19,8 @@ import org.openrewrite.internal.lang.Nullable;
 import org.openrewrite.java.UnsafeJavaTypeVisitor;
 import org.openrewrite.java.tree.JavaType;
 
-import java.util.Collections;
-import java.util.IdentityHashMap;
-import java.util.Set;
-
 public class SingleLoopUnsafeJavaTypeVisitor extends UnsafeJavaTypeVisitor<Integer> {
-    Set<JavaType> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    final IdentitySet seen = new IdentitySet();
 
     @Override
     public JavaType visit(@Nullable JavaType javaType, Integer p) {
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import org.openrewrite.SourceFile;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.tree.JavaType;
+import org.openrewrite.marker.Marker;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.openrewrite.Tree.randomId;
+
+/**
+ * Sorted hashes of the fully qualified names of the types a source file refers to and of the
+ * {@code type#method} names of the methods it declares or uses, which answer "does this file use ..."
+ * without walking the tree. Hashes may collide, so the index can only rule a use out.
+ * <p>
+ * An index is bound to the one source file instance it is first trusted for, which is the one it was built
+ * for, or for an index that was serialized along with its source file and read back, the first instance it
+ * is checked against whose id matches its stamp. Trees are immutable, so a recipe that changes the file or
+ * only its types produces a new instance carrying the same marker, for which the index is ignored. Checking
+ * is constant time. {@link IndexTypeUsages} indexes source files, and binds indexes read back when it runs
+ * ahead of the recipes that change them.
+ */
+public class TypeUsageIndex implements Marker {
+    /**
+     * Changes whenever the keys are built differently, so that indexes built before are not trusted.
+     */
+    private static final long VERSION = 2;
+
+    private final UUID id;
+    private final long stamp;
+    private final long[] types;
+    private final long[] methods;
+
+    /**
+     * The source file instance the index is trusted for, once it is bound.
+     */
+    @Nullable
+    private transient volatile Reference<SourceFile> boundTo;
+
+    @JsonCreator
+    public TypeUsageIndex(UUID id, long stamp, long[] types, long[] methods) {
+        this.id = id;
+        this.stamp = stamp;
+        this.types = types;
+        this.methods = methods;
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public TypeUsageIndex withId(UUID id) {
+        return id == this.id ? this : new TypeUsageIndex(id, stamp, types, methods);
+    }
+
+    public long getStamp() {
+        return stamp;
+    }
+
+    public long[] getTypes() {
+        return types;
+    }
+
+    public long[] getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return The source file carrying an index of the types and methods it uses.
+     */
+    public static <S extends SourceFile> S index(S sourceFile) {
+        Builder builder = new Builder();
+        new JavaIsoVisitor<Integer>() {
+            @Override
+            public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                builder.add(javaType);
+                return javaType;
+            }
+        }.visit(sourceFile, 0);
+
+        TypeUsageIndex index = new TypeUsageIndex(randomId(), stamp(sourceFile), builder.types.toSortedSet(),
+                builder.methods.toSortedSet());
+        S indexed = sourceFile.withMarkers(sourceFile.getMarkers().computeByType(index, (existing, replacement) -> replacement));
+        index.boundTo = new WeakReference<>(indexed);
+        return indexed;
+    }
+
+    /**
+     * @return The index of this source file, or {@code null} if it has none or the one it carries is bound to
+     * a different version of it.
+     */
+    @Nullable
+    public static TypeUsageIndex of(SourceFile sourceFile) {
+        for (Marker marker : sourceFile.getMarkers().getMarkers()) {
+            if (marker instanceof TypeUsageIndex) {
+                TypeUsageIndex index = (TypeUsageIndex) marker;
+                return index.trusts(sourceFile) ? index : null;
+            }
+        }
+        return null;
+    }
+
+    public boolean mayUseType(String fullyQualifiedName) {
+        return Arrays.binarySearch(types, typeKey(fullyQualifiedName)) >= 0;
+    }
+
+    public boolean mayUseMethod(String declaringType, String methodName) {
+        return Arrays.binarySearch(methods, methodKey(declaringType, methodName)) >= 0;
+    }
+
+    /**
+     * Once bound, an index is never rebound, even after the instance it is bound to has been collected, since
+     * the instance checked now may be one a recipe derived from it.
+     */
+    private boolean trusts(SourceFile sourceFile) {
+        Reference<SourceFile> bound = boundTo;
+        if (bound == null) {
+            synchronized (this) {
+                bound = boundTo;
+                if (bound == null) {
+                    if (stamp != stamp(sourceFile)) {
+                        return false;
+                    }
+                    bound = new WeakReference<>(sourceFile);
+                    boundTo = bound;
+                }
+            }
+        }
+        return bound.get() == sourceFile;
+    }
+
+    /**
+     * Keeps an index that was read back from being trusted for a different source file than it was built for.
+     */
+    private static long stamp(SourceFile sourceFile) {
+        UUID id = sourceFile.getId();
+        long h = (0xcbf29ce484222325L ^ VERSION) * 0x100000001b3L;
+        h = (h ^ id.getMostSignificantBits()) * 0x100000001b3L;
+        h = (h ^ id.getLeastSignificantBits()) * 0x100000001b3L;
+        return finish(h);
+    }
+
+    static long typeKey(String fullyQualifiedName) {
+        return finish(hash(0xcbf29ce484222325L, fullyQualifiedName));
+    }
+
+    static long methodKey(String declaringType, String methodName) {
+        return finish(hash((hash(0xcbf29ce484222325L, declaringType) ^ '#') * 0x100000001b3L, methodName));
+    }
+
+    /**
+     * Inner classes may be named with dollar signs or dots, so both hash alike.
+     */
+    private static long hash(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            h = (h ^ (c == '$' ? '.' : c)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Follows references from each type the tree holds only as far as what they are named after, such as type
+     * arguments and method signatures, but not into the members or supertypes of classes.
+     */
+    private static class Builder {
+        final IdentitySet visited = new IdentitySet();
+        final Keys types = new Keys();
+        final Keys methods = new Keys();
+
+        void add(@Nullable JavaType type) {
+            if (type == null || !visited.add(type)) {
+                return;
+            }
+            if (type instanceof JavaType.Parameterized) {
+                JavaType.Parameterized p = (JavaType.Parameterized) type;
+                types.add(typeKey(p.getFullyQualifiedName()));
+                addAll(p.getTypeParameters());
+            } else if (type instanceof JavaType.FullyQualified) {
+                types.add(typeKey(((JavaType.FullyQualified) type).getFullyQualifiedName()));
+            } else if (type instanceof JavaType.Array) {
+                add(((JavaType.Array) type).getElemType());
+            } else if (type instanceof JavaType.GenericTypeVariable) {
+                addAll(((JavaType.GenericTypeVariable) type).getBounds());
+            } else if (type instanceof JavaType.Method) {
+                JavaType.Method m = (JavaType.Method) type;
+                if (m.getDeclaringType() != null) {
+                    methods.add(methodKey(m.getDeclaringType().getFullyQualifiedName(), m.getName()));
+                }
+                add(m.getDeclaringType());
+                add(m.getReturnType());
+                addAll(m.getParameterTypes());
+                addAll(m.getThrownExceptions());
+            } else if (type instanceof JavaType.Variable) {
+                JavaType.Variable v = (JavaType.Variable) type;
+                add(v.getOwner());
+                add(v.getType());
+            } else if (type instanceof JavaType.MultiCatch) {
+                addAll(((JavaType.MultiCatch) type).getThrowableTypes());
+            }
+        }
+
+        private void addAll(@Nullable List<? extends JavaType> references) {
+            if (references != null) {
+                for (int i = 0; i < references.size(); i++) {
+                    add(references.get(i));
+                }
+            }
+        }
+    }
+
+    private static class Keys {
+        private long[] keys = new long[64];
+        private int size;
+
+        void add(long key) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = key;
+        }
+
+        long[] toSortedSet() {
+            long[] sorted = Arrays.copyOf(keys, size);
+            Arrays.sort(sorted);
+            int n = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[n++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf(sorted, n);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.internal.lang.Nullable;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+
+/**
+ * Variants by fingerprint, in open-addressed tables keyed by the primitive fingerprint, so that a lookup
+ * neither boxes the key nor allocates an entry. The fingerprints are split by their high bits across
+ * independently locked segments, and the low bits pick the slot within a segment. Lookups are optimistic
+ * reads that only take the segment's lock when they overlap a write.
+ * <p>
+ * A bounded table holds at most about {@code maximumSize} fingerprints and evicts within a segment by the
+ * clock algorithm, an approximation of least recently used.
+ */
+final class VariantsTable {
+    private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private final Segment[] segments;
+    private final int shift;
+    private final LongAdder evictions = new LongAdder();
+
+    VariantsTable() {
+        this(UNBOUNDED);
+    }
+
+    VariantsTable(int maximumSize) {
+        int n = maximumSize == UNBOUNDED ? 64 :
+                Integer.highestOneBit(Math.max(1, Math.min(64, maximumSize / 64)));
+        this.shift = 64 - Integer.numberOfTrailingZeros(n);
+        this.segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(maximumSize == UNBOUNDED ? UNBOUNDED : Math.max(1, maximumSize / n));
+        }
+    }
+
+    @Nullable
+    JavaTypeVariants.Variants<?> get(long fingerprint) {
+        return segmentFor(fingerprint).get(fingerprint);
+    }
+
+    JavaTypeVariants.Variants<?> computeIfAbsent(long fingerprint,
+                                                LongFunction<JavaTypeVariants.Variants<?>> mappingFunction) {
+        Segment segment = segmentFor(fingerprint);
+        JavaTypeVariants.Variants<?> existing = segment.get(fingerprint);
+        return existing != null ? existing : segment.computeIfAbsent(fingerprint, mappingFunction);
+    }
+
+    /**
+     * Removes the fingerprint only while it still maps to {@code expected}.
+     */
+    boolean remove(long fingerprint, JavaTypeVariants.Variants<?> expected) {
+        return segmentFor(fingerprint).remove(fingerprint, expected);
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor(long fingerprint) {
+        return shift == 64 ? segments[0] : segments[(int) (fingerprint >>> shift)];
+    }
+
+    /**
+     * Arrays that are replaced together on resize, so that a reader always sees arrays of the same length.
+     */
+    private static final class Table {
+        final long[] keys;
+        final Object[] values;
+        final boolean[] referenced;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.referenced = new boolean[capacity];
+        }
+    }
+
+    private final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private final int maximumSize;
+        private Table table = new Table(16);
+        private int size;
+        private int hand;
+
+        Segment(int maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        @Nullable
+        JavaTypeVariants.Variants<?> get(long fingerprint) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                JavaTypeVariants.Variants<?> found = find(table, fingerprint);
+                if (lock.validate(stamp)) {
+                    return found;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return find(table, fingerprint);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        JavaTypeVariants.Variants<?> computeIfAbsent(long fingerprint,
+                                                    LongFunction<JavaTypeVariants.Variants<?>> mappingFunction) {
+            long stamp = lock.writeLock();
+            try {
+                JavaTypeVariants.Variants<?> existing = find(table, fingerprint);
+                if (existing != null) {
+                    return existing;
+                }
+                JavaTypeVariants.Variants<?> created = mappingFunction.apply(fingerprint);
+                if (size >= maximumSize) {
+                    evict();
+                }
+                if ((size + 1) * 2 > table.keys.length) {
+                    resize();
+                }
+                Table t = table;
+                int mask = t.keys.length - 1;
+                int i = (int) fingerprint & mask;
+                while (t.values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                t.keys[i] = fingerprint;
+                t.values[i] = created;
+                size++;
+                return created;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        boolean remove(long fingerprint, JavaTypeVariants.Variants<?> expected) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                int mask = t.keys.length - 1;
+                for (int i = (int) fingerprint & mask; t.values[i] != null; i = (i + 1) & mask) {
+                    if (t.keys[i] == fingerprint) {
+                        if (t.values[i] != expected) {
+                            return false;
+                        }
+                        removeAt(t, i);
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * May run without the lock, in which case it sees the table in any state and its result is only
+         * used once the read is validated. Probing is limited to the length of the table, so that a
+         * torn read can't loop forever.
+         */
+        @Nullable
+        private JavaTypeVariants.Variants<?> find(Table t, long fingerprint) {
+            int mask = t.keys.length - 1;
+            int i = (int) fingerprint & mask;
+            for (int probes = 0; probes < t.keys.length; probes++) {
+                Object value = t.values[i];
+                if (value == null) {
+                    return null;
+                }
+                if (t.keys[i] == fingerprint) {
+                    if (maximumSize != UNBOUNDED) {
+                        // a lost update only makes eviction a little less accurate
+                        t.referenced[i] = true;
+                    }
+                    return (JavaTypeVariants.Variants<?>) value;
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        /**
+         * Sweeps the clock hand over the table, giving every recently referenced fingerprint a second chance.
+         */
+        private void evict() {
+            Table t = table;
+            int mask = t.keys.length - 1;
+            while (true) {
+                hand = (hand + 1) & mask;
+                if (t.values[hand] != null) {
+                    if (t.referenced[hand]) {
+                        t.referenced[hand] = false;
+                    } else {
+                        removeAt(t, hand);
+                        evictions.increment();
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Shifts later entries of the same probe sequence back into the freed slot rather than leaving a
+         * tombstone, so that lookups stop at the first empty slot.
+         */
+        private void removeAt(Table t, int i) {
+            int mask = t.keys.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (t.values[j] == null) {
+                    break;
+                }
+                int home = (int) t.keys[j] & mask;
+                boolean staysPut = i <= j ? i < home && home <= j : i < home || home <= j;
+                if (!staysPut) {
+                    t.keys[i] = t.keys[j];
+                    t.values[i] = t.values[j];
+                    t.referenced[i] = t.referenced[j];
+                    i = j;
+                }
+            }
+            t.keys[i] = 0;
+            t.values[i] = null;
+            t.referenced[i] = false;
+            size--;
+        }
+
+        private void resize() {
+            Table old = table;
+            Table t = new Table(old.keys.length << 1);
+            int mask = t.keys.length - 1;
+            for (int j = 0; j < old.keys.length; j++) {
+                if (old.values[j] != null) {
+                    int i = (int) old.keys[j] & mask;
+                    while (t.values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    t.keys[i] = old.keys[j];
+                    t.values[i] = old.values[j];
+                    t.referenced[i] = old.referenced[j];
+                }
+            }
+            table = t;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox.table;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreType;
+import lombok.Value;
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+@JsonIgnoreType
+public class TypeFootprintReport extends DataTable<TypeFootprintReport.Row> {
+
+    public TypeFootprintReport(Recipe recipe) {
+        super(recipe, Row.class, TypeFootprintReport.class.getName(),
+                "Java type footprint",
+                "The weight of all source files together, counting what they share once.");
+    }
+
+    @Value
+    public static class Row {
+        @Column(displayName = "Source files",
+                description = "The number of source files weighed.")
+        Integer sourceFiles;
+
+        @Column(displayName = "Weight",
+                description = "Weight as parsed, counting what the parser shares between source files once.")
+        Long weight;
+
+        @Column(displayName = "Weight after single-file deduplication",
+                description = "Weight when the types of each source file are copied and deduplicated on their own, " +
+                              "so that source files share nothing.")
+        Long weightAfterSingleFileDedup;
+
+        @Column(displayName = "Weight after cross-file deduplication",
+                description = "Weight when the types of all source files are deduplicated against shared variants.")
+        Long weightAfterCrossFileDedup;
+    }
+}
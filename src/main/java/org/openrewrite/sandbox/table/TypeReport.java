@@ -41,7 +41,8 @@ public class TypeReport extends DataTable<TypeReport.Row> {
         Long weight;
 
         @Column(displayName = "Weight without private visibility",
-                description = "Weight without private method names and fields.")
+                description = "Weight without private method names and fields, other than those that " +
+                        "source declares or references.")
         Long weightWithoutPrivateMethodNamesAndFields;
     }
 }
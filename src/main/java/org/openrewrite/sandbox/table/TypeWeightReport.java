@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox.table;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreType;
+import lombok.Value;
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+@JsonIgnoreType
+public class TypeWeightReport extends DataTable<TypeWeightReport.Row> {
+
+    public TypeWeightReport(Recipe recipe) {
+        super(recipe, Row.class, TypeWeightReport.class.getName(),
+                "Java type weight breakdown",
+                "Attributes the weight of Java types to the types they belong to and to their kind.");
+    }
+
+    @Value
+    public static class Row {
+        @Column(displayName = "Type",
+                description = "The fully qualified name of the type that the weight belongs to, " +
+                              "or `*` for the total of all types of a kind.")
+        String type;
+
+        @Column(displayName = "Kind",
+                description = "The kind of type, such as Class, Method, Variable, Parameterized or GenericTypeVariable.")
+        String kind;
+
+        @Column(displayName = "Count",
+                description = "The number of types.")
+        Integer count;
+
+        @Column(displayName = "Weight",
+                description = "Estimated bytes retained by the types.")
+        Long weight;
+
+        @Column(displayName = "Shared weight",
+                description = "The part of the weight that is reachable from more than one source file.")
+        Long sharedWeight;
+
+        @Column(displayName = "Unique weight",
+                description = "The part of the weight that is reachable from only one source file.")
+        Long uniqueWeight;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.java.marker.JavaSourceSet;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CanonicalClasspathTest {
+
+    @Test
+    void entriesAreDeduplicatedFromCopies() {
+        JavaTypeVariants variants = new JavaTypeVariants();
+        JavaType published = new JavaTypeDeduplicationTypeVisitor(variants).visit(TypeGraphs.string(), 0);
+
+        JavaType.Class node = TypeGraphs.node();
+        JavaType.FullyQualified object = node.getSupertype();
+        List<JavaType.Method> methods = node.getMethods();
+        JavaType.Class string = TypeGraphs.string();
+        JavaType.FullyQualified stringSupertype = string.getSupertype();
+        List<JavaType.FullyQualified> classpath = List.of(node, string);
+
+        List<JavaType.FullyQualified> canonical = variants.canonicalize(sourceSet(classpath)).getClasspath();
+        assertThat(canonical.get(1)).isSameAs(published);
+        assertThat(canonical.get(0)).isNotSameAs(node);
+        assertThat(((JavaType.Class) canonical.get(0)).getSupertype()).isSameAs(((JavaType.Class) published).getSupertype());
+
+        // the parser's types, which other source files may be reading, are left as they were
+        assertThat(node.getSupertype()).isSameAs(object);
+        assertThat(node.getMethods()).isSameAs(methods);
+        assertThat(string.getSupertype()).isSameAs(stringSupertype);
+    }
+
+    @Test
+    void sharedBySourceFilesWithTheSameSourceSet() {
+        JavaTypeVariants variants = new JavaTypeVariants();
+        JavaSourceSet sourceSet = sourceSet(List.of(TypeGraphs.string()));
+
+        JavaSourceSet canonical = variants.canonicalize(sourceSet);
+        assertThat(variants.canonicalize(sourceSet)).isSameAs(canonical);
+        assertThat(variants.canonicalize(canonical)).isSameAs(canonical);
+
+        JavaSourceSet changed = sourceSet.withClasspath(List.of(TypeGraphs.integer()));
+        assertThat(variants.canonicalize(changed)).isNotSameAs(canonical);
+    }
+
+    @Test
+    void rememberedSourceSetsAreBounded() {
+        JavaTypeVariants variants = new JavaTypeVariants();
+        JavaSourceSet first = sourceSet(List.of(TypeGraphs.string()));
+        JavaSourceSet canonical = variants.canonicalize(first);
+        JavaType.FullyQualified string = canonical.getClasspath().get(0);
+
+        for (int i = 0; i < JavaTypeVariants.MAXIMUM_CLASSPATHS; i++) {
+            variants.canonicalize(sourceSet(List.of(TypeGraphs.integer())));
+        }
+
+        // forgotten, but canonicalized again to the same types
+        JavaSourceSet again = variants.canonicalize(first);
+        assertThat(again).isNotSameAs(canonical);
+        assertThat(again.getClasspath().get(0)).isSameAs(string);
+    }
+
+    @Test
+    void pinsTheOriginalUntilComplete() {
+        JavaTypeVariants variants = new JavaTypeVariants();
+        CanonicalClasspath classpath = (CanonicalClasspath) variants
+                .canonicalize(sourceSet(List.of(TypeGraphs.string(), TypeGraphs.node())))
+                .getClasspath();
+
+        JavaType.FullyQualified string = classpath.get(0);
+        assertThat(classpath.isComplete()).isFalse();
+
+        variants.completeClasspaths();
+        assertThat(classpath.isComplete()).isTrue();
+        assertThat(classpath.get(0)).isSameAs(string);
+        assertThat(classpath.get(1).getFullyQualifiedName()).isEqualTo("com.example.Node");
+    }
+
+    @Test
+    void everyThreadReadsTheSameEntries() throws Exception {
+        int threads = 8;
+        List<JavaType.FullyQualified> original = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            original.add(i % 2 == 0 ? TypeGraphs.node() : TypeGraphs.string());
+        }
+        CanonicalClasspath classpath = new CanonicalClasspath(original, new JavaTypeVariants());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CyclicBarrier start = new CyclicBarrier(threads);
+            List<Future<List<JavaType.FullyQualified>>> reads = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                reads.add(executor.submit(() -> {
+                    start.await();
+                    return new ArrayList<>(classpath);
+                }));
+            }
+            for (Future<List<JavaType.FullyQualified>> read : reads) {
+                List<JavaType.FullyQualified> entries = read.get(30, TimeUnit.SECONDS);
+                for (int i = 0; i < entries.size(); i++) {
+                    assertThat(entries.get(i)).isSameAs(classpath.get(i));
+                    // equivalent entries are deduplicated to one canonical type
+                    assertThat(entries.get(i)).isSameAs(classpath.get(i % 2));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(classpath.isComplete()).isTrue();
+    }
+
+    private static JavaSourceSet sourceSet(List<JavaType.FullyQualified> classpath) {
+        return new JavaSourceSet(UUID.randomUUID(), "main", classpath);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrentIdentitySetTest {
+
+    @Test
+    void addsEachObjectOnceAcrossThreads() throws Exception {
+        int threads = 8;
+        Object[] objects = new Object[20_000];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = new Object();
+        }
+        ConcurrentIdentitySet set = new ConcurrentIdentitySet(4, 16);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CyclicBarrier start = new CyclicBarrier(threads);
+            List<Future<Integer>> added = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                added.add(executor.submit(() -> {
+                    // every thread adds all of the objects, each in its own order
+                    List<Object> shuffled = new ArrayList<>(Arrays.asList(objects));
+                    Collections.shuffle(shuffled);
+                    start.await();
+                    int count = 0;
+                    for (Object o : shuffled) {
+                        if (set.add(o)) {
+                            count++;
+                        }
+                    }
+                    return count;
+                }));
+            }
+
+            int total = 0;
+            for (Future<Integer> count : added) {
+                total += count.get(30, TimeUnit.SECONDS);
+            }
+            assertThat(total).isEqualTo(objects.length);
+            assertThat(set.size()).isEqualTo(objects.length);
+            for (Object o : objects) {
+                assertThat(set.contains(o)).isTrue();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
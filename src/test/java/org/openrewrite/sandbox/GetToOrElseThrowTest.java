@@ -16,9 +16,18 @@
 package org.openrewrite.sandbox;
 
 import org.junit.jupiter.api.Test;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
 import org.openrewrite.test.RecipeSpec;
 import org.openrewrite.test.RewriteTest;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.openrewrite.java.Assertions.java;
 
 public class GetToOrElseThrowTest implements RewriteTest {
@@ -54,4 +63,123 @@ public class GetToOrElseThrowTest implements RewriteTest {
           )
         );
     }
+
+    @Test
+    void chainedOptionalGet() {
+        rewriteRun(
+          //language=java
+          java(
+            """
+              import java.util.Optional;
+                              
+              class Test {
+                  int test(Optional<String> value) {
+                      return value
+                          .get()
+                          .length();
+                  }
+              }
+              """,
+            """
+              import java.util.NoSuchElementException;
+              import java.util.Optional;
+                              
+              class Test {
+                  int test(Optional<String> value) {
+                      return value
+                          .orElseThrow(NoSuchElementException::new)
+                          .length();
+                  }
+              }
+              """
+          )
+        );
+    }
+
+    @Test
+    void attributesOrElseThrowWithTypesOfEachVisitor() {
+        J.CompilationUnit cu = parse(
+          //language=java
+          """
+            import java.util.Optional;
+
+            class Test {
+                int test(Optional<String> value) {
+                    return value.get().length();
+                }
+            }
+            """
+        );
+        JavaType.Method get = invocation(cu, "get").getMethodType();
+        J.MethodInvocation orElseThrow = invocation(run(cu), "orElseThrow");
+
+        JavaType.Method type = orElseThrow.getMethodType();
+        assertThat(type.getName()).isEqualTo("orElseThrow");
+        assertThat(type.getDeclaringType()).isSameAs(get.getDeclaringType());
+        assertThat(type.getReturnType()).isSameAs(get.getReturnType());
+        assertThat(type.getParameterTypes()).hasSize(1);
+        JavaType.FullyQualified exception = type.getThrownExceptions().get(0);
+        assertThat(exception.getFullyQualifiedName()).isEqualTo("java.util.NoSuchElementException");
+        JavaType.Method constructor = ((J.MemberReference) orElseThrow.getArguments().get(0)).getMethodType();
+        assertThat(constructor.getDeclaringType()).isSameAs(exception);
+        assertThat(constructor.isConstructor()).isTrue();
+
+        // another run must not share types that deduplicating this run's tree may change in place
+        assertThat(invocation(run(cu), "orElseThrow").getMethodType().getThrownExceptions().get(0))
+                .isNotSameAs(exception);
+    }
+
+    @Test
+    void fallsBackToTheTemplateWhenTheDeclaringTypeLacksOrElseThrow() {
+        J.CompilationUnit cu = parse(
+          //language=java
+          """
+            import java.util.Optional;
+
+            class Test {
+                void test() {
+                    String value = Optional.of("").get();
+                }
+            }
+            """
+        );
+        // as when java.util.Optional is only known by its name
+        J.CompilationUnit shallow = (J.CompilationUnit) new JavaIsoVisitor<Integer>() {
+            @Override
+            public J.MethodInvocation visitMethodInvocation(J.MethodInvocation method, Integer p) {
+                J.MethodInvocation m = super.visitMethodInvocation(method, p);
+                if ("get".equals(m.getSimpleName())) {
+                    return m.withMethodType(m.getMethodType()
+                            .withDeclaringType(JavaType.ShallowClass.build("java.util.Optional")));
+                }
+                return m;
+            }
+        }.visitNonNull(cu, 0);
+
+        J.CompilationUnit after = run(shallow);
+        assertThat(after.printAll()).contains("Optional.of(\"\").orElseThrow(NoSuchElementException::new)");
+        assertThat(invocation(after, "orElseThrow").getMethodType().getDeclaringType().getMethods()).isNotEmpty();
+    }
+
+    private static J.CompilationUnit parse(String source) {
+        return JavaParser.fromJavaVersion().build().parse(new InMemoryExecutionContext(), source).get(0);
+    }
+
+    private static J.CompilationUnit run(J.CompilationUnit cu) {
+        return (J.CompilationUnit) new GetToOrElseThrow().getVisitor().visitNonNull(cu, new InMemoryExecutionContext());
+    }
+
+    private static J.MethodInvocation invocation(J.CompilationUnit cu, String name) {
+        List<J.MethodInvocation> invocations = new ArrayList<>();
+        new JavaIsoVisitor<Integer>() {
+            @Override
+            public J.MethodInvocation visitMethodInvocation(J.MethodInvocation method, Integer p) {
+                if (name.equals(method.getSimpleName())) {
+                    invocations.add(method);
+                }
+                return super.visitMethodInvocation(method, p);
+            }
+        }.visit(cu, 0);
+        return invocations.get(0);
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdentitySetTest {
+
+    @Test
+    void comparesByIdentity() {
+        IdentitySet set = new IdentitySet();
+        String a = new String("a");
+        String b = new String("a");
+        assertThat(set.add(a)).isTrue();
+        assertThat(set.add(a)).isFalse();
+        assertThat(set.contains(b)).isFalse();
+        assertThat(set.add(b)).isTrue();
+        assertThat(set.size()).isEqualTo(2);
+    }
+
+    @Test
+    void neverAddsNull() {
+        IdentitySet set = new IdentitySet(16);
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(set.add(null)).isFalse();
+        }
+        assertThat(set.contains(null)).isFalse();
+        assertThat(set.size()).isEqualTo(0);
+    }
+
+    @Test
+    void growsPastItsExpectedSize() {
+        IdentitySet set = new IdentitySet(4);
+        Object[] objects = new Object[1_000];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = new Object();
+            assertThat(set.add(objects[i])).isTrue();
+        }
+        for (Object o : objects) {
+            assertThat(set.contains(o)).isTrue();
+        }
+        assertThat(set.size()).isEqualTo(objects.length);
+    }
+
+    @Test
+    void weakSetComparesByIdentity() {
+        IdentitySet set = IdentitySet.weak(16);
+        String a = new String("a");
+        String b = new String("a");
+        assertThat(set.add(a)).isTrue();
+        assertThat(set.add(a)).isFalse();
+        assertThat(set.contains(b)).isFalse();
+        assertThat(set.add(b)).isTrue();
+        assertThat(set.contains(a)).isTrue();
+    }
+
+    @Test
+    void weakSetDropsCollectedMembersInsteadOfGrowing() {
+        IdentitySet set = IdentitySet.weak(16);
+        Object[] kept = new Object[1_000];
+        for (int i = 0; i < kept.length; i++) {
+            kept[i] = new Object();
+            set.add(kept[i]);
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 10_000; i++) {
+                assertThat(set.add(new Object())).isTrue();
+            }
+            System.gc();
+        }
+
+        for (Object o : kept) {
+            assertThat(set.contains(o)).isTrue();
+            assertThat(set.add(o)).isFalse();
+        }
+        // holding all 201,000 members would take a table of 2^19 slots
+        assertThat(set.capacity()).isLessThan(1 << 18);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JavaTypeBisimulationTest {
+
+    /**
+     * Cross-checks partition refinement against the naive fixpoint, which splits classes by the classes of
+     * their successors until nothing changes, on random automata of type variables and arrays.
+     */
+    @Test
+    void agreesWithNaiveRefinementOnRandomAutomata() {
+        for (int seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            List<JavaType> states = randomAutomaton(random, 1 + random.nextInt(40));
+            int[] naive = naiveRefinement(states);
+
+            JavaTypeBisimulation bisimulation = new JavaTypeBisimulation();
+            for (JavaType state : states) {
+                bisimulation.add(state);
+            }
+            bisimulation.canonicalize();
+
+            for (int i = 0; i < states.size(); i++) {
+                for (int j = 0; j < states.size(); j++) {
+                    boolean equivalent = bisimulation.canonical(states.get(i)) == bisimulation.canonical(states.get(j));
+                    assertThat(equivalent)
+                            .as("seed %d, states %d and %d", seed, i, j)
+                            .isEqualTo(naive[i] == naive[j]);
+                }
+            }
+
+            for (JavaType state : states) {
+                JavaType canonical = bisimulation.canonical(state);
+                for (JavaType successor : successors(canonical)) {
+                    assertThat(bisimulation.canonical(successor)).isSameAs(successor);
+                }
+            }
+        }
+    }
+
+    @Test
+    void dedupTypesByBisimulationSharesTypesAcrossSourceFiles() {
+        List<SourceFile> sourceFiles = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            // separate parsers, so that no type is shared to begin with
+            sourceFiles.addAll(JavaParser.fromJavaVersion().build().parse(new InMemoryExecutionContext(),
+                    //language=java
+                    """
+                      import java.util.List;
+
+                      abstract class JavaTypeGoat<T, S extends PT<S> & C> {
+                          public static abstract class Extension<U extends Extension<U>> {}
+                          public abstract PT<PT<C>> parameterizedRecursive(PT<PT<C>> n);
+                          public abstract <U extends JavaTypeGoat<U, ?>> JavaTypeGoat<? extends U[], ?> genericRecursive(JavaTypeGoat<? extends U[], ?> n);
+                          public abstract List<String> names();
+                      }
+
+                      interface C {
+                      }
+
+                      interface PT<T> {
+                      }
+                      """));
+        }
+        JavaType.FullyQualified before0 = goat(sourceFiles.get(0));
+        JavaType.FullyQualified before1 = goat(sourceFiles.get(1));
+        assertThat(before1).isNotSameAs(before0);
+
+        List<SourceFile> deduplicated = JavaTypeUtils.dedupTypesByBisimulation(sourceFiles);
+
+        JavaType.Class goat = (JavaType.Class) goat(deduplicated.get(0));
+        assertThat(goat(deduplicated.get(1))).isSameAs(goat);
+        for (JavaType.Method method : goat.getMethods()) {
+            assertThat(method.getDeclaringType()).isSameAs(goat);
+        }
+        assertThat(JavaTypeUtils.weigh(deduplicated)).isLessThan(JavaTypeUtils.weigh(sourceFiles));
+    }
+
+    private static JavaType.FullyQualified goat(SourceFile sourceFile) {
+        return ((J.CompilationUnit) sourceFile).getClasses().get(0).getType();
+    }
+
+    private static List<JavaType> randomAutomaton(Random random, int n) {
+        List<JavaType> states = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            states.add(random.nextInt(4) == 0 ?
+                    new JavaType.Array(null, null) :
+                    new JavaType.GenericTypeVariable(null, random.nextBoolean() ? "T" : "U",
+                            JavaType.GenericTypeVariable.Variance.COVARIANT, null));
+        }
+        for (JavaType state : states) {
+            if (state instanceof JavaType.Array) {
+                ((JavaType.Array) state).unsafeSet(states.get(random.nextInt(n)));
+            } else {
+                List<JavaType> bounds = new ArrayList<>();
+                for (int b = random.nextInt(3); b > 0; b--) {
+                    bounds.add(states.get(random.nextInt(n)));
+                }
+                ((JavaType.GenericTypeVariable) state).unsafeSet(JavaType.GenericTypeVariable.Variance.COVARIANT, bounds);
+            }
+        }
+        return states;
+    }
+
+    private static int[] naiveRefinement(List<JavaType> states) {
+        Map<JavaType, Integer> index = new IdentityHashMap<>();
+        for (int i = 0; i < states.size(); i++) {
+            index.put(states.get(i), i);
+        }
+
+        int[] classes = new int[states.size()];
+        Map<List<Object>, Integer> labels = new HashMap<>();
+        for (int i = 0; i < states.size(); i++) {
+            JavaType state = states.get(i);
+            List<Object> label = Arrays.asList(state.getClass(), state instanceof JavaType.GenericTypeVariable ?
+                    ((JavaType.GenericTypeVariable) state).getName() : "", successors(state).size());
+            classes[i] = labels.computeIfAbsent(label, l -> labels.size());
+        }
+
+        int count = labels.size();
+        while (true) {
+            Map<List<Integer>, Integer> signatures = new HashMap<>();
+            int[] refined = new int[states.size()];
+            for (int i = 0; i < states.size(); i++) {
+                List<Integer> signature = new ArrayList<>();
+                signature.add(classes[i]);
+                for (JavaType successor : successors(states.get(i))) {
+                    signature.add(classes[index.get(successor)]);
+                }
+                refined[i] = signatures.computeIfAbsent(signature, s -> signatures.size());
+            }
+            classes = refined;
+            if (signatures.size() == count) {
+                return classes;
+            }
+            count = signatures.size();
+        }
+    }
+
+    private static List<JavaType> successors(JavaType state) {
+        if (state instanceof JavaType.Array) {
+            return Collections.singletonList(((JavaType.Array) state).getElemType());
+        }
+        return ((JavaType.GenericTypeVariable) state).getBounds();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JavaTypeDeduplicationVisitorTest {
+
+    @Test
+    void deduplicatesCycles() {
+        JavaTypeVariants variants = new JavaTypeVariants();
+        JavaType.Class first = (JavaType.Class) new JavaTypeDeduplicationTypeVisitor(variants)
+                .visit(TypeGraphs.node(), 0);
+        JavaType.Class second = (JavaType.Class) new JavaTypeDeduplicationTypeVisitor(variants)
+                .visit(TypeGraphs.node(), 0);
+
+        assertThat(second).isSameAs(first);
+        assertCanonicalNode(first);
+    }
+
+    @Test
+    void distinguishesCyclesThatDifferOnlyInsideTheCycle() {
+        JavaTypeVariants variants = new JavaTypeVariants();
+        JavaType first = new JavaTypeDeduplicationTypeVisitor(variants).visit(TypeGraphs.node(true), 0);
+        JavaType second = new JavaTypeDeduplicationTypeVisitor(variants).visit(TypeGraphs.node(false), 0);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(variants.variantsOf(first).snapshot()).hasSize(2);
+        assertThat(((JavaType.Class) second).getSupertype()).isSameAs(((JavaType.Class) first).getSupertype());
+    }
+
+    @Test
+    void distinguishesParameterizedArguments() {
+        JavaTypeVariants variants = new JavaTypeVariants();
+        JavaTypeDeduplicationTypeVisitor visitor = new JavaTypeDeduplicationTypeVisitor(variants);
+        JavaType.Method strings = (JavaType.Method) visitor.visit(TypeGraphs.foo(TypeGraphs.string()), 0);
+        JavaType.Method integers = (JavaType.Method) visitor.visit(TypeGraphs.foo(TypeGraphs.integer()), 0);
+
+        assertThat(integers).isNotSameAs(strings);
+        assertThat(integers.getDeclaringType()).isSameAs(strings.getDeclaringType());
+    }
+
+    @Test
+    void publishesOneCanonicalPerTypeAcrossThreads() throws Exception {
+        int threads = 8;
+        int copiesPerThread = 200;
+        JavaTypeVariants variants = new JavaTypeVariants();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CyclicBarrier start = new CyclicBarrier(threads);
+            List<Future<List<JavaType>>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    List<JavaType.Class> copies = new ArrayList<>();
+                    for (int i = 0; i < copiesPerThread; i++) {
+                        copies.add(TypeGraphs.node());
+                    }
+                    start.await();
+                    List<JavaType> canonical = new ArrayList<>();
+                    for (JavaType.Class copy : copies) {
+                        // a visitor per copy, so that each copy races the other threads from scratch
+                        canonical.add(new JavaTypeDeduplicationTypeVisitor(variants).visit(copy, 0));
+                    }
+                    return canonical;
+                }));
+            }
+
+            JavaType.Class winner = null;
+            for (Future<List<JavaType>> result : results) {
+                for (JavaType canonical : result.get(30, TimeUnit.SECONDS)) {
+                    if (winner == null) {
+                        winner = (JavaType.Class) canonical;
+                    }
+                    assertThat(canonical).isSameAs(winner);
+                }
+            }
+
+            assertThat(winner).isNotNull();
+            assertCanonicalNode(winner);
+            assertThat(variants.variantsOf(winner).snapshot()).hasSize(1);
+            for (JavaType.Method method : winner.getMethods()) {
+                assertThat(variants.variantsOf(method).snapshot()).hasSize(1);
+            }
+            assertThat(variants.variantsOf(winner.getMembers().get(0)).snapshot()).hasSize(1);
+            assertThat(variants.variantsOf(winner.getMethods().get(1).getReturnType()).snapshot()).hasSize(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void leavesTypesTheParserSharesAlone() {
+        List<String> sources = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            sources.add("import java.util.List; class A" + i + " { List<String> names; String name() { return null; } }");
+        }
+        List<SourceFile> sourceFiles = new ArrayList<>(JavaParser.fromJavaVersion().build()
+                .parse(new InMemoryExecutionContext(), sources.toArray(new String[0])));
+        Map<JavaType, List<JavaType>> references = TypeGraphs.references(sourceFiles);
+
+        ForkJoinPool pool = new ForkJoinPool(8);
+        try {
+            List<SourceFile> deduped = JavaTypeUtils.dedupTypes(sourceFiles, new JavaTypeVariants(), pool);
+            assertThat(deduped).hasSize(16);
+        } finally {
+            pool.shutdown();
+        }
+
+        // every type the parser handed out still refers to exactly what it did
+        assertThat(TypeGraphs.references(sourceFiles)).isEqualTo(references);
+    }
+
+    private static void assertCanonicalNode(JavaType.Class node) {
+        JavaType.Variable next = node.getMembers().get(0);
+        assertThat(next.getOwner()).isSameAs(node);
+        assertThat(next.getType()).isSameAs(node);
+        for (JavaType.Method method : node.getMethods()) {
+            assertThat(method.getDeclaringType()).isSameAs(node);
+        }
+        assertThat(node.getMethods().get(0).getReturnType()).isSameAs(node);
+        JavaType.Parameterized children = (JavaType.Parameterized) node.getMethods().get(1).getReturnType();
+        assertThat(children.getTypeParameters().get(0)).isSameAs(node);
+    }
+}
@@ -16,7 +16,9 @@
 package org.openrewrite.sandbox;
 
 import org.junit.jupiter.api.Test;
+import org.openrewrite.sandbox.table.TypeFootprintReport;
 import org.openrewrite.sandbox.table.TypeReport;
+import org.openrewrite.sandbox.table.TypeWeightReport;
 import org.openrewrite.test.RecipeSpec;
 import org.openrewrite.test.RewriteTest;
 
@@ -121,4 +123,68 @@ public class JavaTypeDensityStudyTest implements RewriteTest {
           )
         );
     }
+
+    @Test
+    void footprint() {
+        rewriteRun(
+          spec -> spec.dataTable(TypeFootprintReport.Row.class, rows -> {
+              assertThat(rows).hasSize(1);
+              TypeFootprintReport.Row row = rows.get(0);
+              assertThat(row.getSourceFiles()).isEqualTo(2);
+              assertThat(row.getWeightAfterCrossFileDedup()).isLessThanOrEqualTo(row.getWeight());
+              // both files hold a List<String> of their own until they are deduplicated against each other
+              assertThat(row.getWeightAfterCrossFileDedup()).isLessThan(row.getWeightAfterSingleFileDedup());
+          }),
+          //language=java
+          java(
+            """
+              import java.util.List;
+              class A {
+                  List<String> names;
+              }
+              """
+          ),
+          //language=java
+          java(
+            """
+              import java.util.List;
+              class B {
+                  List<String> names;
+              }
+              """
+          )
+        );
+    }
+
+    @Test
+    void typeWeights() {
+        rewriteRun(
+          spec -> spec.dataTable(TypeWeightReport.Row.class, rows -> {
+              // type variables belong to a class that declares them rather than to their name, and these two are
+              // equivalent, so deduplication leaves one of them
+              assertThat(rows).noneMatch(row -> "T".equals(row.getType()));
+              assertThat(rows).anyMatch(row -> ("A".equals(row.getType()) || "B".equals(row.getType())) &&
+                                               "GenericTypeVariable".equals(row.getKind()));
+              assertThat(rows).anyMatch(row -> "java.lang.Object".equals(row.getType()) &&
+                                               "Class".equals(row.getKind()) && row.getSharedWeight() > 0);
+              assertThat(rows).allMatch(row -> row.getWeight() == row.getSharedWeight() + row.getUniqueWeight());
+          }),
+          //language=java
+          java(
+            """
+              class A<T> {
+                  T value;
+              }
+              """
+          ),
+          //language=java
+          java(
+            """
+              class B<T> {
+                  T value;
+              }
+              """
+          )
+        );
+    }
 }
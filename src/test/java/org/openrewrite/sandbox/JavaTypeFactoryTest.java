@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.java.tree.JavaType;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JavaTypeFactoryTest {
+    private final JavaTypeVariants variants = new JavaTypeVariants();
+    private final JavaTypeFactory factory = new JavaTypeFactory(variants);
+
+    @Test
+    void buildsWhatDeduplicationFinds() {
+        JavaType.FullyQualified list = factory.intern(TypeGraphs.listOf(TypeGraphs.string()).getType());
+        JavaType.Class string = factory.intern(TypeGraphs.string());
+
+        JavaType.Parameterized listOfString = factory.parameterized(list, singletonList(string));
+        assertThat(factory.parameterized(list, singletonList(string))).isSameAs(listOfString);
+        assertThat(factory.intern(TypeGraphs.listOf(TypeGraphs.string()))).isSameAs(listOfString);
+        assertThat(factory.parameterized(list, singletonList(factory.intern(TypeGraphs.integer()))))
+                .isNotSameAs(listOfString);
+    }
+
+    @Test
+    void variablesDifferByTypeAndFlags() {
+        JavaType.Method owner = factory.intern(TypeGraphs.foo(TypeGraphs.string()));
+        JavaType.Class string = factory.intern(TypeGraphs.string());
+        JavaType.Class integer = factory.intern(TypeGraphs.integer());
+
+        JavaType.Variable i = factory.variable(0, "i", owner, string, null);
+        assertThat(factory.variable(0, "i", owner, string, null)).isSameAs(i);
+        assertThat(factory.variable(0, "i", owner, integer, null)).isNotSameAs(i);
+        assertThat(factory.variable(16, "i", owner, string, null)).isNotSameAs(i);
+        assertThat(factory.intern(new JavaType.Variable(null, 0, "i", owner, string, null))).isSameAs(i);
+    }
+
+    @Test
+    void missingListsAreEmpty() {
+        JavaType.GenericTypeVariable t = factory.genericTypeVariable("T",
+                JavaType.GenericTypeVariable.Variance.INVARIANT, null);
+        assertThat(factory.genericTypeVariable("T", JavaType.GenericTypeVariable.Variance.INVARIANT, emptyList()))
+                .isSameAs(t);
+        assertThat(factory.intern(new JavaType.GenericTypeVariable(null, "T",
+                JavaType.GenericTypeVariable.Variance.INVARIANT, emptyList()))).isSameAs(t);
+    }
+
+    @Test
+    void methodsOfInternedClasses() {
+        JavaType.Class node = factory.intern(TypeGraphs.node());
+        JavaType.Method next = node.getMethods().get(0);
+
+        assertThat(factory.method(next.getFlagsBitMap(), node, "next", node, emptyList(), emptyList(),
+                emptyList(), emptyList())).isSameAs(next);
+        assertThat(factory.method(next.getFlagsBitMap(), node, "previous", node, emptyList(), emptyList(),
+                emptyList(), emptyList()).getDeclaringType()).isSameAs(node);
+    }
+}
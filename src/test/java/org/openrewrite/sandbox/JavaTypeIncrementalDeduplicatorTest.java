@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.marker.JavaSourceSet;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JavaTypeIncrementalDeduplicatorTest {
+
+    @Test
+    void givesUnchangedSourceFilesTheCanonicalTypesOfThePreviousRun() {
+        JavaTypeIncrementalDeduplicator deduplicator = new JavaTypeIncrementalDeduplicator();
+        JavaType.FullyQualified first = classType(deduplicator.dedupTypes(parse("class A { String name; }")).get(0));
+        JavaType.FullyQualified second = classType(deduplicator.dedupTypes(parse("class A { String name; }")).get(0));
+
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void deduplicatesChangedSourceFilesAgain() {
+        JavaTypeIncrementalDeduplicator deduplicator = new JavaTypeIncrementalDeduplicator();
+        deduplicator.dedupTypes(parse("class A { String name; }"));
+        JavaType.FullyQualified changed = classType(deduplicator.dedupTypes(parse("class A { int count; }")).get(0));
+
+        assertThat(changed.getMembers().get(0).getName()).isEqualTo("count");
+    }
+
+    @Test
+    void deduplicatesAgainWhenATypeDeclaredInAnotherSourceFileChanges() {
+        JavaTypeIncrementalDeduplicator deduplicator = new JavaTypeIncrementalDeduplicator();
+        deduplicator.dedupTypes(parse("import java.util.List; class A { List<B> bs; }", "class B {}"));
+
+        // A's source is unchanged, but the B it refers to has gained a member
+        SourceFile a = deduplicator.dedupTypes(
+                parse("import java.util.List; class A { List<B> bs; }", "class B { int count; }")).get(0);
+
+        JavaType.Parameterized bs = (JavaType.Parameterized) classType(a).getMembers().get(0).getType();
+        JavaType.FullyQualified b = (JavaType.FullyQualified) bs.getTypeParameters().get(0);
+        assertThat(b.getMembers()).hasSize(1);
+        assertThat(b.getMembers().get(0).getName()).isEqualTo("count");
+    }
+
+    @Test
+    void recognizesDependencyUpgradesThroughTheClasspath() {
+        JavaTypeIncrementalDeduplicator deduplicator = new JavaTypeIncrementalDeduplicator();
+        deduplicator.dedupTypes(withClasspath(parse("class A {}"), dependency(TypeGraphs.string())));
+
+        // the upgrade only changes what a method of the dependency returns, deeper than its fingerprint
+        List<SourceFile> upgraded = deduplicator.dedupTypes(
+                withClasspath(parse("class A {}"), dependency(TypeGraphs.integer())));
+
+        JavaType.FullyQualified dependency = upgraded.get(0).getMarkers().findFirst(JavaSourceSet.class)
+                .orElseThrow(IllegalStateException::new).getClasspath().get(0);
+        assertThat(((JavaType.FullyQualified) dependency.getMethods().get(0).getReturnType())
+                .getFullyQualifiedName()).isEqualTo("java.lang.Integer");
+    }
+
+    @Test
+    void retiresCanonicalTypesThatNoSourceFileReaches() {
+        JavaTypeVariants variants = new JavaTypeVariants();
+        JavaTypeIncrementalDeduplicator deduplicator = new JavaTypeIncrementalDeduplicator(variants);
+        List<SourceFile> sourceFiles = new ArrayList<>(parse("class A { String name; }"));
+        sourceFiles.addAll(parse("class B { Integer count; }"));
+        JavaType.FullyQualified b = classType(deduplicator.dedupTypes(sourceFiles).get(1));
+
+        JavaType.FullyQualified a = classType(deduplicator.dedupTypes(parse("class A { String name; }")).get(0));
+
+        assertThat(variants.variantsOf(b).snapshot()).doesNotContain(b);
+        assertThat(variants.variantsOf(a).snapshot()).contains(a);
+    }
+
+    private static List<SourceFile> parse(String... sources) {
+        return new ArrayList<>(JavaParser.fromJavaVersion().build().parse(new InMemoryExecutionContext(), sources));
+    }
+
+    private static List<SourceFile> withClasspath(List<SourceFile> sourceFiles, JavaType.FullyQualified dependency) {
+        J.CompilationUnit cu = (J.CompilationUnit) sourceFiles.get(0);
+        JavaSourceSet sourceSet = new JavaSourceSet(UUID.randomUUID(), "main", singletonList(dependency));
+        return singletonList(cu.withMarkers(cu.getMarkers().addIfAbsent(sourceSet)));
+    }
+
+    /**
+     * A class {@code com.example.Dependency} with a method {@code get()} returning the given type.
+     */
+    private static JavaType.Class dependency(JavaType returnType) {
+        JavaType.Class dependency = new JavaType.Class(null, 1, "com.example.Dependency",
+                JavaType.FullyQualified.Kind.Class, null, TypeGraphs.object(), null, null, null, null, null);
+        JavaType.Method get = new JavaType.Method(null, 1, dependency, "get", returnType,
+                emptyList(), emptyList(), emptyList(), emptyList());
+        return dependency.unsafeSet(null, TypeGraphs.object(), null, null, null, null, singletonList(get));
+    }
+
+    private static JavaType.FullyQualified classType(SourceFile sourceFile) {
+        return ((J.CompilationUnit) sourceFile).getClasses().get(0).getType();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openrewrite.java.tree.JavaType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JavaTypeInternStoreTest {
+
+    @Test
+    void recordsOutcomesAcrossRuns(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("types.intern");
+        try (JavaTypeInternStore store = JavaTypeInternStore.open(path, 64)) {
+            store.record(1L, true);
+            store.record(2L, true);
+            store.record(2L, false);
+            store.record(2L, true);
+        }
+
+        try (JavaTypeInternStore store = JavaTypeInternStore.open(path, 64)) {
+            assertThat(store.size()).isEqualTo(2);
+            assertThat(store.isVerified(1L)).isTrue();
+            assertThat(store.isVerified(2L)).isFalse();
+            assertThat(store.isVerified(3L)).isFalse();
+        }
+    }
+
+    @Test
+    void comparisonsAreRecordedOnlyOncePublished(@TempDir Path dir) throws IOException {
+        try (JavaTypeInternStore store = JavaTypeInternStore.open(dir.resolve("types.intern"), 64)) {
+            JavaTypeDeduplicationTypeVisitor visitor = new JavaTypeDeduplicationTypeVisitor(new JavaTypeVariants(store));
+            JavaType string = visitor.visit(TypeGraphs.string(), 0);
+            visitor.visit(TypeGraphs.string(), 0);
+            assertThat(store.size()).isZero();
+
+            visitor.publishMetrics();
+            assertThat(store.isVerified(JavaTypeFingerprint.of(string))).isTrue();
+        }
+    }
+
+    @Test
+    void onlyOneStoreHasTheFileOpen(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("types.intern");
+        try (JavaTypeInternStore ignored = JavaTypeInternStore.open(path, 64)) {
+            assertThatThrownBy(() -> JavaTypeInternStore.open(path, 64))
+                    .isInstanceOf(IllegalStateException.class);
+        }
+        JavaTypeInternStore.open(path, 64).close();
+    }
+
+    @Test
+    void rejectsTruncatedFiles(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("types.intern");
+        JavaTypeInternStore.open(path, 64).close();
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertThatThrownBy(() -> JavaTypeInternStore.open(path, 64))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void verifiedFingerprintsAreStillCompared(@TempDir Path dir) throws IOException {
+        try (JavaTypeInternStore store = JavaTypeInternStore.open(dir.resolve("types.intern"), 64)) {
+            JavaTypeVariants variants = new JavaTypeVariants(store);
+            JavaTypeDeduplicationTypeVisitor visitor = new JavaTypeDeduplicationTypeVisitor(variants);
+
+            JavaType strings = visitor.visit(TypeGraphs.foo(TypeGraphs.string()), 0);
+            assertThat(visitor.visit(TypeGraphs.foo(TypeGraphs.string()), 0)).isSameAs(strings);
+            visitor.publishMetrics();
+            assertThat(store.isVerified(JavaTypeFingerprint.of(strings))).isTrue();
+
+            // shares the fingerprint of foo(List<String>), which has just been verified
+            JavaType integers = visitor.visit(TypeGraphs.foo(TypeGraphs.integer()), 0);
+            assertThat(JavaTypeFingerprint.of(integers)).isEqualTo(JavaTypeFingerprint.of(strings));
+            assertThat(integers).isNotSameAs(strings);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.*;
+
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JavaTypeMemberPrunerTest {
+
+    @Test
+    void retainsMembersAsVisibleAsThePolicy() {
+        assertThat(memberNames(prune(JavaTypeMemberPruner.Visibility.PUBLIC, new IdentitySet())))
+                .containsExactly("publicField", "publicMethod");
+        assertThat(memberNames(prune(JavaTypeMemberPruner.Visibility.PROTECTED, new IdentitySet())))
+                .containsExactly("publicField", "protectedField", "publicMethod", "protectedMethod");
+        assertThat(memberNames(prune(JavaTypeMemberPruner.Visibility.PACKAGE_PRIVATE, new IdentitySet())))
+                .containsExactly("publicField", "protectedField", "packagePrivateField",
+                        "publicMethod", "protectedMethod", "packagePrivateMethod");
+    }
+
+    @Test
+    void retainsMembersThatSourceNeeds() {
+        JavaType.Class members = members();
+        IdentitySet keep = new IdentitySet();
+        keep.add(members.getMembers().get(3));
+        keep.add(members.getMethods().get(2));
+
+        JavaType.Class pruned = (JavaType.Class) new JavaTypeMemberPruner(JavaTypeMemberPruner.Visibility.PUBLIC)
+                .pruningOverlay(keep).visit(members, 0);
+
+        assertThat(memberNames(pruned))
+                .containsExactly("publicField", "privateField", "publicMethod", "packagePrivateMethod");
+        assertThat(pruned.getMembers().get(1).getOwner()).isSameAs(pruned);
+        assertThat(memberNames(members)).hasSize(8);
+    }
+
+    @Test
+    void copiesOnlyWhatReachesAPrunedClass() {
+        JavaType.Class members = members();
+        JavaType.Method foo = TypeGraphs.foo(members);
+        JavaType.FullyQualified fooClass = foo.getDeclaringType();
+        JavaType.Parameterized listOfMembers = (JavaType.Parameterized) foo.getParameterTypes().get(0);
+
+        JavaTypeOverlay overlay = new JavaTypeMemberPruner(JavaTypeMemberPruner.Visibility.PUBLIC)
+                .pruningOverlay(new IdentitySet());
+        JavaType.Method pruned = (JavaType.Method) overlay.visit(foo, 0);
+        JavaType.Parameterized prunedList = (JavaType.Parameterized) pruned.getParameterTypes().get(0);
+        JavaType.Class prunedMembers = (JavaType.Class) prunedList.getTypeParameters().get(0);
+
+        // untouched types are the originals
+        assertThat(pruned.getDeclaringType()).isSameAs(fooClass);
+        assertThat(prunedList.getType()).isSameAs(listOfMembers.getType());
+        assertThat(prunedMembers.getSupertype()).isSameAs(members.getSupertype());
+
+        // only the class that loses members, its remaining members and what reaches it are copies
+        assertThat(memberNames(prunedMembers)).containsExactly("publicField", "publicMethod");
+        assertThat(prunedMembers.getMembers().get(0).getOwner()).isSameAs(prunedMembers);
+        assertThat(prunedMembers.getMethods().get(0).getDeclaringType()).isSameAs(prunedMembers);
+        assertThat(memberNames(members)).hasSize(8);
+
+        // a later exploration refers to the copies made before
+        JavaType.Parameterized later = (JavaType.Parameterized) overlay.visit(TypeGraphs.listOf(members), 0);
+        assertThat(later.getTypeParameters().get(0)).isSameAs(prunedMembers);
+
+        // cloning, as pruning used to, copies every type that isn't immutable
+        List<JavaType> original = reachable(foo);
+        int copies = 0;
+        for (JavaType type : reachable(pruned)) {
+            if (!contains(original, type)) {
+                copies++;
+            }
+        }
+        int clones = 0;
+        for (JavaType type : reachable(new JavaTypeCloner().visit(foo, 0))) {
+            if (!contains(original, type)) {
+                clones++;
+            }
+        }
+        assertThat(copies).isEqualTo(5);
+        assertThat(clones).isEqualTo(15);
+    }
+
+    @Test
+    void leavesTheCallersTypesAlone() {
+        List<SourceFile> sourceFiles = new ArrayList<>(JavaParser.fromJavaVersion().build().parse(new InMemoryExecutionContext(),
+                "class A { private int count; private void reset() { count = 0; } }",
+                "class B { private A a; private String name; }"));
+        Map<JavaType, List<JavaType>> references = TypeGraphs.references(sourceFiles);
+
+        List<SourceFile> pruned = new JavaTypeMemberPruner(JavaTypeMemberPruner.Visibility.PUBLIC).prune(sourceFiles);
+
+        assertThat(pruned).hasSize(2);
+        assertThat(TypeGraphs.references(sourceFiles)).isEqualTo(references);
+    }
+
+    @Test
+    void scansFieldsAndMethodsButNotLocals() {
+        List<J.CompilationUnit> cus = JavaParser.fromJavaVersion().build().parse(new InMemoryExecutionContext(),
+                //language=java
+                """
+                  class A {
+                      private int count;
+
+                      void increment(int by) {
+                          int step = by;
+                          count += step;
+                      }
+                  }
+                  """);
+        Map<String, JavaType.Variable> variables = new HashMap<>();
+        List<JavaType.Method> methods = new ArrayList<>();
+        new JavaIsoVisitor<Integer>() {
+            @Override
+            public J.VariableDeclarations.NamedVariable visitVariable(J.VariableDeclarations.NamedVariable variable, Integer p) {
+                JavaType.Variable type = variable.getVariableType();
+                if (type != null) {
+                    variables.put(type.getName(), type);
+                }
+                return super.visitVariable(variable, p);
+            }
+
+            @Override
+            public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, Integer p) {
+                methods.add(method.getMethodType());
+                return super.visitMethodDeclaration(method, p);
+            }
+        }.visit(cus.get(0), 0);
+
+        IdentitySet inSource = new JavaTypeMemberPruner(JavaTypeMemberPruner.Visibility.PUBLIC)
+                .scanMembersInSource(new ArrayList<SourceFile>(cus));
+
+        assertThat(inSource.contains(variables.get("count"))).isTrue();
+        assertThat(inSource.contains(methods.get(0))).isTrue();
+        assertThat(inSource.contains(variables.get("step"))).isFalse();
+        assertThat(inSource.contains(variables.get("by"))).isFalse();
+    }
+
+    private static JavaType.Class prune(JavaTypeMemberPruner.Visibility visibility, IdentitySet keep) {
+        return (JavaType.Class) new JavaTypeMemberPruner(visibility).pruningOverlay(keep).visit(members(), 0);
+    }
+
+    private static List<JavaType> reachable(JavaType root) {
+        IdentitySet seen = new IdentitySet();
+        List<JavaType> reachable = new ArrayList<>();
+        Deque<JavaType> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            JavaType type = stack.pop();
+            if (seen.add(type)) {
+                reachable.add(type);
+                JavaTypeUtils.forEachReference(type, reference -> {
+                    if (reference != null) {
+                        stack.push(reference);
+                    }
+                });
+            }
+        }
+        return reachable;
+    }
+
+    private static boolean contains(List<JavaType> types, JavaType type) {
+        for (JavaType t : types) {
+            if (t == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> memberNames(JavaType.Class c) {
+        List<String> names = new ArrayList<>();
+        for (JavaType.Variable member : c.getMembers()) {
+            names.add(member.getName());
+        }
+        for (JavaType.Method method : c.getMethods()) {
+            names.add(method.getName());
+        }
+        return names;
+    }
+
+    /**
+     * A field and a method of each visibility, in the order public, protected, package-private, private.
+     */
+    private static JavaType.Class members() {
+        JavaType.Class c = new JavaType.Class(null, 1, "com.example.Members", JavaType.FullyQualified.Kind.Class,
+                null, null, null, null, null, null, null);
+        String[] names = {"public", "protected", "packagePrivate", "private"};
+        long[] flags = {1, 4, 0, 2};
+        List<JavaType.Variable> fields = new ArrayList<>();
+        List<JavaType.Method> methods = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            fields.add(new JavaType.Variable(null, flags[i], names[i] + "Field", c, JavaType.Primitive.Int, null));
+            methods.add(new JavaType.Method(null, flags[i], c, names[i] + "Method", JavaType.Primitive.Void,
+                    emptyList(), emptyList(), emptyList(), emptyList()));
+        }
+        c.unsafeSet(null, TypeGraphs.object(), null, null, null, fields, methods);
+        return c;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JavaTypeTableTest {
+
+    @Test
+    void attachesTheTypesOfSourceFilesFromTheTable() {
+        List<J.CompilationUnit> cus = JavaParser.fromJavaVersion().build().parse(new InMemoryExecutionContext(),
+                //language=java
+                """
+                  class A {
+                      String name;
+                  }
+                  """,
+                //language=java
+                """
+                  class B {
+                      String name;
+                  }
+                  """);
+        JavaTypeTable.Writer writer = new JavaTypeTable.Writer();
+        int[] aRefs = writer.add(cus.get(0));
+        int[] bRefs = writer.add(cus.get(1));
+        JavaTypeTable table = JavaTypeTable.read(writer.write());
+
+        J.CompilationUnit a = (J.CompilationUnit) table.attach(cus.get(0), aRefs);
+        J.CompilationUnit b = (J.CompilationUnit) table.attach(cus.get(1), bRefs);
+
+        JavaType.FullyQualified aType = a.getClasses().get(0).getType();
+        JavaType.FullyQualified bType = b.getClasses().get(0).getType();
+        assertThat(aType).isNotSameAs(cus.get(0).getClasses().get(0).getType());
+        assertThat(aType.getFullyQualifiedName()).isEqualTo("A");
+        assertThat(aType.getMembers().get(0).getName()).isEqualTo("name");
+        assertThat(aType.getMembers().get(0).getOwner()).isSameAs(aType);
+        assertThat(aType.getMembers().get(0).getType())
+                .isSameAs(bType.getMembers().get(0).getType());
+    }
+
+    @Test
+    void viewsReadRecordsWithoutBuildingTypes() {
+        JavaTypeTable.Writer writer = new JavaTypeTable.Writer();
+        int id = writer.add(TypeGraphs.node());
+        JavaTypeTable table = JavaTypeTable.read(writer.write());
+
+        JavaTypeTable.View node = table.view(id);
+        assertThat(node.getKind()).isEqualTo(JavaTypeTable.Kind.CLASS);
+        assertThat(node.getFullyQualifiedName()).isEqualTo("com.example.Node");
+        assertThat(node.getClassKind()).isEqualTo(JavaType.FullyQualified.Kind.Class);
+        assertThat(node.getSupertype().getFullyQualifiedName()).isEqualTo("java.lang.Object");
+        assertThat(node.getOwningClass()).isNull();
+
+        JavaTypeTable.View next = node.getMembers().get(0);
+        assertThat(next.getName()).isEqualTo("next");
+        assertThat(next.getFlagsBitMap()).isEqualTo(2L);
+        assertThat(next.getOwner().getId()).isEqualTo(id);
+
+        List<JavaTypeTable.View> methods = node.getMethods();
+        assertThat(methods.stream().map(JavaTypeTable.View::getName).collect(toList()))
+                .containsExactly("next", "children");
+        assertThat(methods.get(0).getDeclaringType().getId()).isEqualTo(id);
+        assertThat(methods.get(0).getReturnType().getId()).isEqualTo(id);
+        assertThat(methods.get(0).getParameterNames()).isEmpty();
+        JavaTypeTable.View children = methods.get(1).getReturnType();
+        assertThat(children.getKind()).isEqualTo(JavaTypeTable.Kind.PARAMETERIZED);
+        assertThat(children.getFullyQualifiedName()).isEqualTo("java.util.List");
+        assertThat(children.getTypeParameters().get(0).getId()).isEqualTo(id);
+
+        assertThatThrownBy(node::getElemType).isInstanceOf(IllegalStateException.class);
+        assertThat(((JavaType.Class) node.materialize()).getFullyQualifiedName()).isEqualTo("com.example.Node");
+    }
+
+    @Test
+    void mapsTablesWrittenToFiles(@TempDir Path dir) throws IOException {
+        JavaTypeTable.Writer writer = new JavaTypeTable.Writer();
+        int id = writer.add(TypeGraphs.node());
+        Path file = dir.resolve("types.bin");
+        writer.write(file);
+
+        JavaType.Class node = (JavaType.Class) JavaTypeTable.map(file, false).get(id);
+        assertThat(node.getFullyQualifiedName()).isEqualTo("com.example.Node");
+        assertThat(node.getMembers().get(0).getOwner()).isSameAs(node);
+        assertThat(node.getMethods().get(0).getDeclaringType()).isSameAs(node);
+    }
+
+    @Test
+    void rebuildsSoftlyHeldTypesOnceCleared() {
+        JavaTypeTable.Writer writer = new JavaTypeTable.Writer();
+        int id = writer.add(TypeGraphs.node());
+        JavaTypeTable table = JavaTypeTable.read(writer.write(), true);
+
+        JavaType.Class node = (JavaType.Class) table.get(id);
+        assertThat(table.get(id)).isSameAs(node);
+
+        table.clearSoftReferences();
+        JavaType.Class rebuilt = (JavaType.Class) table.get(id);
+        assertThat(rebuilt).isNotSameAs(node);
+        assertThat(rebuilt.getFullyQualifiedName()).isEqualTo("com.example.Node");
+        assertThat(rebuilt.getMembers().get(0).getOwner()).isSameAs(rebuilt);
+        assertThat(((JavaType.Parameterized) rebuilt.getMethods().get(1).getReturnType())
+                .getTypeParameters().get(0)).isSameAs(rebuilt);
+    }
+
+    @Test
+    void buildsDeepTypeGraphsWithoutOverflowingTheStack() {
+        int depth = 100_000;
+        JavaType type = JavaType.Primitive.Int;
+        for (int i = 0; i < depth; i++) {
+            type = new JavaType.Array(null, type);
+        }
+        JavaTypeTable.Writer writer = new JavaTypeTable.Writer();
+        int id = writer.add(type);
+
+        JavaType read = JavaTypeTable.read(writer.write()).get(id);
+        int count = 0;
+        while (read instanceof JavaType.Array) {
+            read = ((JavaType.Array) read).getElemType();
+            count++;
+        }
+        assertThat(count).isEqualTo(depth);
+        assertThat(read).isSameAs(JavaType.Primitive.Int);
+    }
+
+    @Test
+    void rejectsTruncatedTables() {
+        JavaTypeTable.Writer writer = new JavaTypeTable.Writer();
+        writer.add(TypeGraphs.node());
+        ByteBuffer table = writer.write();
+
+        ByteBuffer truncated = table.duplicate();
+        truncated.limit(table.limit() - 1);
+        assertThatThrownBy(() -> JavaTypeTable.read(truncated))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("truncated");
+
+        ByteBuffer header = table.duplicate();
+        header.limit(8);
+        assertThatThrownBy(() -> JavaTypeTable.read(header)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsOffsetsOutsideOfTheTable() {
+        JavaTypeTable.Writer writer = new JavaTypeTable.Writer();
+        writer.add(TypeGraphs.node());
+        ByteBuffer table = writer.write();
+
+        // the first offset, which is that of the first string
+        table.putInt(20, table.limit());
+        assertThatThrownBy(() -> JavaTypeTable.read(table))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("offset");
+    }
+}
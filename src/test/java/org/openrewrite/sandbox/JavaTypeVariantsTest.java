@@ -0,0 +1,44 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.java.tree.JavaType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JavaTypeVariantsTest {
+
+    @Test
+    void retiringKeepsTheVariantsThatPublishersChecked() {
+        JavaTypeVariants variants = new JavaTypeVariants();
+        JavaType.Class retired = TypeGraphs.string();
+        JavaTypeVariants.Variants<JavaType> strings = variants.variantsOf(retired);
+        strings.publish(retired, 0, variant -> false);
+
+        // a publisher compares its candidate against the one variant, while another publishes an equivalent
+        int checked = strings.snapshot().length;
+        JavaType.Class published = TypeGraphs.string();
+        strings.publish(published, checked, variant -> false);
+
+        variants.retire(retired);
+        assertThat(variants.variantsOf(published)).isSameAs(strings);
+        assertThat(strings.snapshot()).containsExactly(null, published);
+
+        assertThat(strings.publish(TypeGraphs.string(), checked, variant -> variant == published))
+                .isSameAs(published);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.J;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JavaTypeWeighTaskTest {
+
+    @Test
+    void weighsUnsplitSourceFilesLikeASingleThread() {
+        List<SourceFile> sourceFiles = new ArrayList<>(JavaParser.fromJavaVersion().build().parse(
+                new InMemoryExecutionContext(),
+                //language=java
+                """
+                  import java.util.List;
+
+                  class A {
+                      List<String> names;
+                  }
+                  """,
+                //language=java
+                """
+                  import java.util.List;
+
+                  class B {
+                      List<String> names;
+
+                      int count(List<Integer> counts) {
+                          return counts.size();
+                      }
+                  }
+                  """,
+                //language=java
+                """
+                  class C {
+                      String name;
+                  }
+                  """));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertThat(JavaTypeUtils.weigh(sourceFiles, pool))
+                    .isEqualTo(JavaTypeUtils.weigh((Collection<SourceFile>) sourceFiles));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void splitsLargeCompilationUnitsWithoutChangingTheirWeight() {
+        StringBuilder source = new StringBuilder("import java.util.List;\n\nclass Large {\n");
+        int fields = JavaTypeWeighTask.STATEMENTS_PER_TASK * 2 + 1;
+        for (int i = 0; i < fields; i++) {
+            source.append("    List<String> f").append(i).append(";\n");
+        }
+        J.CompilationUnit cu = JavaParser.fromJavaVersion().build()
+                .parse(new InMemoryExecutionContext(), source.append("}\n").toString()).get(0);
+
+        List<J> parts = JavaTypeWeighTask.split(cu);
+        // the hollow compilation unit, and each statement of the class body
+        assertThat(parts).hasSize(fields + 1);
+        assertThat(((J.CompilationUnit) parts.get(0)).getClasses().get(0).getBody().getStatements()).isEmpty();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertThat(JavaTypeUtils.weigh(List.of(cu), pool)).isEqualTo(JavaTypeUtils.weigh(cu));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
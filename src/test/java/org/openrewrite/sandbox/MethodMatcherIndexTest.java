@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.J;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MethodMatcherIndexTest {
+    /**
+     * The invocations of {@code indexOf(String)}, {@code indexOf(int)}, {@code length()} and {@code size()}.
+     */
+    private final List<J.MethodInvocation> invocations = invocations();
+
+    @Test
+    void distinguishesOverloads() {
+        MethodMatcherIndex<String> index = new MethodMatcherIndex<String>()
+                .add("java.lang.String indexOf(int)", "int")
+                .add("java.lang.String indexOf(java.lang.String)", "string");
+
+        assertThat(index.matches(invocations.get(0))).containsExactly("string");
+        assertThat(index.matches(invocations.get(1))).containsExactly("int");
+        assertThat(index.matches(invocations.get(2))).isEmpty();
+    }
+
+    @Test
+    void matchesWildcardsInTheOrderPatternsWereAdded() {
+        MethodMatcherIndex<String> index = new MethodMatcherIndex<String>()
+                .add("java.lang.String index*(..)", "name wildcard")
+                .add("*..* length()", "type wildcard")
+                .add("java.lang.String indexOf(..)", "exact")
+                .add("java.lang.* *(..)", "both wildcards");
+
+        assertThat(index.matches(invocations.get(0))).containsExactly("name wildcard", "exact", "both wildcards");
+        assertThat(index.matches(invocations.get(2))).containsExactly("type wildcard", "both wildcards");
+        assertThat(index.matches(invocations.get(3))).isEmpty();
+        assertThat(index.size()).isEqualTo(4);
+    }
+
+    @Test
+    void matchesOverridesInSubtypesOnlyWhenAsked() {
+        MethodMatcherIndex<String> index = new MethodMatcherIndex<String>()
+                .add("java.util.Collection size()", "declared")
+                .add("java.util.Collection size()", true, "overrides")
+                .add("java.util.ArrayList size()", "exact");
+
+        assertThat(index.matches(invocations.get(3))).containsExactly("overrides", "exact");
+    }
+
+    private static List<J.MethodInvocation> invocations() {
+        List<J.MethodInvocation> invocations = new ArrayList<>();
+        J.CompilationUnit cu = JavaParser.fromJavaVersion().build().parse(new InMemoryExecutionContext(),
+                //language=java
+                """
+                  import java.util.ArrayList;
+
+                  class Test {
+                      void test(String s, ArrayList<String> list) {
+                          s.indexOf("x");
+                          s.indexOf(1);
+                          s.length();
+                          list.size();
+                      }
+                  }
+                  """).get(0);
+        new JavaIsoVisitor<Integer>() {
+            @Override
+            public J.MethodInvocation visitMethodInvocation(J.MethodInvocation method, Integer p) {
+                invocations.add(method);
+                return super.visitMethodInvocation(method, p);
+            }
+        }.visit(cu, 0);
+        return invocations;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Timeout(30)
+class PipelineTest {
+
+    @Test
+    void everyItemReachesTheSink() {
+        List<Integer> seen = new ArrayList<>();
+        Pipeline.from(range(1_000), 4)
+                .stage("double", 4, i -> i * 2)
+                .stage("increment", 2, i -> i + 1)
+                .forEach(seen::add);
+
+        Collections.sort(seen);
+        assertThat(seen).isEqualTo(IntStream.range(0, 1_000).map(i -> i * 2 + 1).boxed().collect(Collectors.toList()));
+    }
+
+    @Test
+    void stageFailureDrainsTheRestAndIsRethrown() {
+        AtomicInteger sunk = new AtomicInteger();
+        assertThatThrownBy(() -> Pipeline.from(range(10_000), 2)
+                .stage("fail", 3, i -> {
+                    if (i == 10) {
+                        throw new IllegalArgumentException("item 10");
+                    }
+                    return i;
+                })
+                .stage("pass", 2, i -> i)
+                .forEach(i -> sunk.incrementAndGet()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("item 10");
+
+        // once the failure is seen, the source stops and the few items already in flight are dropped
+        assertThat(sunk.get()).isLessThan(10_000);
+    }
+
+    @Test
+    void undeclaredCheckedExceptionDoesNotHang() {
+        assertThatThrownBy(() -> Pipeline.from(range(100), 2)
+                .stage("sneaky", 2, i -> i == 50 ? sneakyThrow(new IOException("item 50")) : i)
+                .forEach(i -> {
+                }))
+                .isInstanceOf(IllegalStateException.class)
+                .hasCauseInstanceOf(IOException.class);
+    }
+
+    @Test
+    void sinkFailureIsRethrown() {
+        assertThatThrownBy(() -> Pipeline.from(range(10_000), 2)
+                .stage("pass", 2, i -> i)
+                .forEach(i -> {
+                    throw new IllegalStateException("sink");
+                }))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("sink");
+    }
+
+    @Test
+    void sourceIsNotReadAheadOfASlowSink() {
+        int capacity = 2;
+        AtomicInteger pulled = new AtomicInteger();
+        Iterable<Integer> source = () -> new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return pulled.get() < 1_000;
+            }
+
+            @Override
+            public Integer next() {
+                return pulled.getAndIncrement();
+            }
+        };
+
+        AtomicInteger pulledWhenSinkResumed = new AtomicInteger(-1);
+        Pipeline.from(source, capacity)
+                .stage("pass", 1, i -> i)
+                .forEach(i -> {
+                    if (pulledWhenSinkResumed.get() < 0) {
+                        try {
+                            Thread.sleep(500);
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        pulledWhenSinkResumed.set(pulled.get());
+                    }
+                });
+
+        // a full queue in front of each of the stage and the sink, plus the item the source, the stage and the
+        // sink each hold
+        assertThat(pulledWhenSinkResumed.get()).isBetween(capacity, 2 * capacity + 3);
+        assertThat(pulled.get()).isEqualTo(1_000);
+    }
+
+    private static List<Integer> range(int n) {
+        return IntStream.range(0, n).boxed().collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R, E extends Throwable> R sneakyThrow(Throwable t) throws E {
+        throw (E) t;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.openrewrite.SourceFile;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.*;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+/**
+ * Builds small type graphs by hand, each call a fresh copy that shares no instances with any other, the
+ * way separate parsers would attribute the same source.
+ */
+final class TypeGraphs {
+    private TypeGraphs() {
+    }
+
+    static JavaType.Class object() {
+        return new JavaType.Class(null, 1, "java.lang.Object", JavaType.FullyQualified.Kind.Class,
+                null, null, null, null, null, null, null);
+    }
+
+    static JavaType.Class string() {
+        return new JavaType.Class(null, 1, "java.lang.String", JavaType.FullyQualified.Kind.Class,
+                null, object(), null, null, null, null, null);
+    }
+
+    static JavaType.Class integer() {
+        return new JavaType.Class(null, 1, "java.lang.Integer", JavaType.FullyQualified.Kind.Class,
+                null, object(), null, null, null, null, null);
+    }
+
+    static JavaType.Parameterized listOf(JavaType element) {
+        JavaType.Class list = new JavaType.Class(null, 1, "java.util.List", JavaType.FullyQualified.Kind.Interface,
+                null, null, null, null, null, null, null);
+        return new JavaType.Parameterized(null, list, singletonList(element));
+    }
+
+    /**
+     * A class {@code com.example.Node} with a field {@code next} of its own type, a method {@code next()}
+     * returning it and a method {@code children()} returning a list of nodes, so that the class, its members
+     * and the parameterized list refer to each other in a cycle.
+     */
+    static JavaType.Class node() {
+        return node(true);
+    }
+
+    /**
+     * @param childrenAreNodes Whether {@code children()} returns a list of nodes rather than of objects, which
+     *                         changes the cycle without changing the fingerprint of the class.
+     */
+    static JavaType.Class node(boolean childrenAreNodes) {
+        JavaType.Class node = new JavaType.Class(null, 1, "com.example.Node", JavaType.FullyQualified.Kind.Class,
+                null, null, null, null, null, null, null);
+        JavaType.Variable next = new JavaType.Variable(null, 2, "next", node, node, null);
+        JavaType.Method nextMethod = new JavaType.Method(null, 1, node, "next", node,
+                emptyList(), emptyList(), emptyList(), emptyList());
+        JavaType.Method children = new JavaType.Method(null, 1, node, "children",
+                listOf(childrenAreNodes ? node : object()),
+                emptyList(), emptyList(), emptyList(), emptyList());
+        List<JavaType.Method> methods = new ArrayList<>();
+        methods.add(nextMethod);
+        methods.add(children);
+        node.unsafeSet(null, object(), null, null, null, singletonList(next), methods);
+        return node;
+    }
+
+    /**
+     * A method {@code foo(List<element>)} declared by a fresh copy of {@code com.example.Foo}.
+     */
+    static JavaType.Method foo(JavaType element) {
+        JavaType.Class foo = new JavaType.Class(null, 1, "com.example.Foo", JavaType.FullyQualified.Kind.Class,
+                null, object(), null, null, null, null, null);
+        return new JavaType.Method(null, 1, foo, "foo", JavaType.Primitive.Void, singletonList("l"),
+                singletonList(listOf(element)), emptyList(), emptyList());
+    }
+
+    /**
+     * The types reachable from the source files, each with the types it refers to, compared by identity.
+     */
+    static Map<JavaType, List<JavaType>> references(List<SourceFile> sourceFiles) {
+        Deque<JavaType> stack = new ArrayDeque<>();
+        for (SourceFile sourceFile : sourceFiles) {
+            new JavaIsoVisitor<Integer>() {
+                @Override
+                public JavaType visitType(@Nullable JavaType javaType, Integer p) {
+                    if (javaType != null) {
+                        stack.push(javaType);
+                    }
+                    return javaType;
+                }
+            }.visit(sourceFile, 0);
+        }
+        Map<JavaType, List<JavaType>> references = new IdentityHashMap<>();
+        while (!stack.isEmpty()) {
+            JavaType type = stack.pop();
+            if (!references.containsKey(type)) {
+                List<JavaType> referenced = new IdentityList();
+                JavaTypeUtils.forEachReference(type, reference -> {
+                    referenced.add(reference);
+                    if (reference != null) {
+                        stack.push(reference);
+                    }
+                });
+                references.put(type, referenced);
+            }
+        }
+        return references;
+    }
+
+    /**
+     * A list that is equal to another only if it holds the very same elements.
+     */
+    private static class IdentityList extends ArrayList<JavaType> {
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof IdentityList) || ((IdentityList) o).size() != size()) {
+                return false;
+            }
+            for (int i = 0; i < size(); i++) {
+                if (((IdentityList) o).get(i) != get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return size();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.Space;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TypeUsageIndexTest {
+    //language=java
+    private static final String SOURCE = """
+      import java.util.Optional;
+
+      class Test {
+          String test(Optional<String> value) {
+              return value.get();
+          }
+      }
+      """;
+
+    @Test
+    void indexesTypesAndMethods() {
+        TypeUsageIndex index = TypeUsageIndex.of(TypeUsageIndex.index(parse(SOURCE)));
+
+        assertThat(index).isNotNull();
+        assertThat(index.mayUseType("java.util.Optional")).isTrue();
+        assertThat(index.mayUseType("java.util.Map")).isFalse();
+        assertThat(index.mayUseMethod("java.util.Optional", "get")).isTrue();
+        assertThat(index.mayUseMethod("java.util.Optional", "orElseThrow")).isFalse();
+    }
+
+    @Test
+    void trustsIndexesReadBackForTheSameSource() {
+        J.CompilationUnit indexed = TypeUsageIndex.index(parse(SOURCE));
+        TypeUsageIndex index = TypeUsageIndex.of(indexed);
+        // as if serialized along with the file and read back
+        TypeUsageIndex copy = new TypeUsageIndex(index.getId(), index.getStamp(), index.getTypes(), index.getMethods());
+        J.CompilationUnit readBack = withIndex(indexed, copy);
+
+        assertThat(TypeUsageIndex.of(withIndex(parse(SOURCE), copy))).isNull();
+        assertThat(TypeUsageIndex.of(readBack)).isSameAs(copy);
+    }
+
+    @Test
+    void ignoresIndexesOnceTheSourceFileChanges() {
+        J.CompilationUnit indexed = TypeUsageIndex.index(parse(SOURCE));
+        J.CompilationUnit changed = indexed.withPrefix(Space.format("// changed\n"));
+
+        assertThat(TypeUsageIndex.of(indexed)).isNotNull();
+        assertThat(TypeUsageIndex.of(changed)).isNull();
+        assertThat(TypeUsageIndex.of(indexed)).isNotNull();
+    }
+
+    @Test
+    void preconditionsSkipFilesTheIndexRulesOut() {
+        J.CompilationUnit indexed = TypeUsageIndex.index(parse(SOURCE));
+        TypeUsageIndex index = TypeUsageIndex.of(indexed);
+        // an index that claims no uses at all, which only the indexed path believes
+        J.CompilationUnit ruledOut = withIndex(indexed,
+                new TypeUsageIndex(index.getId(), index.getStamp(), new long[0], new long[0]));
+
+        assertThat(new IndexedUsesMethod<Integer>("java.util.Optional get()").visit(indexed, 0)).isNotSameAs(indexed);
+        assertThat(new IndexedUsesMethod<Integer>("java.util.Optional get()").visit(ruledOut, 0)).isSameAs(ruledOut);
+        assertThat(new IndexedUsesType<Integer>("java.util.Optional").visit(ruledOut, 0)).isSameAs(ruledOut);
+    }
+
+    @Test
+    void indexesSourceFilesWithoutATrustedIndex() {
+        J.CompilationUnit cu = parse(SOURCE);
+        J.CompilationUnit indexed = (J.CompilationUnit) new IndexTypeUsages().getVisitor()
+                .visit(cu, new InMemoryExecutionContext());
+
+        assertThat(TypeUsageIndex.of(indexed)).isNotNull();
+        assertThat(new IndexTypeUsages().getVisitor().visit(indexed, new InMemoryExecutionContext())).isSameAs(indexed);
+    }
+
+    private static J.CompilationUnit parse(String source) {
+        return JavaParser.fromJavaVersion().build().parse(new InMemoryExecutionContext(), source).get(0);
+    }
+
+    private static J.CompilationUnit withIndex(J.CompilationUnit cu, TypeUsageIndex index) {
+        return cu.withMarkers(cu.getMarkers().computeByType(index, (existing, replacement) -> replacement));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.sandbox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VariantsTableTest {
+
+    @Test
+    void computeIfAbsentReturnsTheSameVariants() {
+        VariantsTable table = new VariantsTable();
+        JavaTypeVariants.Variants<?> variants = table.computeIfAbsent(42L, fp -> new JavaTypeVariants.Variants<>());
+        assertThat(table.computeIfAbsent(42L, fp -> new JavaTypeVariants.Variants<>())).isSameAs(variants);
+        assertThat(table.get(42L)).isSameAs(variants);
+        assertThat(table.get(43L)).isNull();
+        assertThat(table.size()).isEqualTo(1);
+    }
+
+    @Test
+    void zeroIsAFingerprintLikeAnyOther() {
+        VariantsTable table = new VariantsTable();
+        assertThat(table.get(0L)).isNull();
+        JavaTypeVariants.Variants<?> variants = table.computeIfAbsent(0L, fp -> new JavaTypeVariants.Variants<>());
+        assertThat(table.get(0L)).isSameAs(variants);
+    }
+
+    @Test
+    void removingKeepsCollidingFingerprintsReachable() {
+        VariantsTable table = new VariantsTable();
+        // identical low and high bits, so all of these probe from the same slot of the same segment
+        long[] fingerprints = new long[100];
+        JavaTypeVariants.Variants<?>[] variants = new JavaTypeVariants.Variants<?>[fingerprints.length];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = ((long) i << 32) | 7;
+            variants[i] = table.computeIfAbsent(fingerprints[i], fp -> new JavaTypeVariants.Variants<>());
+        }
+
+        for (int i = 0; i < fingerprints.length; i += 2) {
+            assertThat(table.remove(fingerprints[i], variants[i])).isTrue();
+        }
+        for (int i = 0; i < fingerprints.length; i++) {
+            assertThat(table.get(fingerprints[i])).isSameAs(i % 2 == 0 ? null : variants[i]);
+        }
+        assertThat(table.size()).isEqualTo(fingerprints.length / 2);
+    }
+
+    @Test
+    void removeOnlyWhileMappedToExpectedVariants() {
+        VariantsTable table = new VariantsTable();
+        JavaTypeVariants.Variants<?> variants = table.computeIfAbsent(1L, fp -> new JavaTypeVariants.Variants<>());
+        assertThat(table.remove(1L, new JavaTypeVariants.Variants<>())).isFalse();
+        assertThat(table.get(1L)).isSameAs(variants);
+    }
+
+    @Test
+    void boundedTableEvictsWhatIsNotReferenced() {
+        VariantsTable table = new VariantsTable(64);
+        JavaTypeVariants.Variants<?> hot = table.computeIfAbsent(-1L, fp -> new JavaTypeVariants.Variants<>());
+        for (long fp = 0; fp < 10_000; fp++) {
+            table.computeIfAbsent(fp * 0x9e3779b97f4a7c15L, it -> new JavaTypeVariants.Variants<>());
+            assertThat(table.get(-1L)).isSameAs(hot);
+        }
+        assertThat(table.size()).isLessThanOrEqualTo(64);
+        assertThat(table.getEvictionCount()).isEqualTo(10_001 - table.size());
+    }
+}